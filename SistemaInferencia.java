@@ -1,33 +1,201 @@
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.LongPredicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 import java.io.*;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import jdk.jfr.Category;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
 
 
+// Tabla de símbolos: asigna un entero a cada nombre de predicado, constante o variable.
+// Solo crece con los nombres de las sentencias y consultas: la resolución no
+// crea símbolos, así que su tamaño no depende de cuánto se derive
+class SymbolTable {
+    private static final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private static final Map<Long, Integer> signatures = new ConcurrentHashMap<>();
+    private static volatile String[] names = new String[64];
+    private static volatile Term[] constants = new Term[64];
+    private static volatile Term[] variables = new Term[64];
+    private static int size = 0;
+    private static int signatureCount = 0;
+    
+    public static int intern(String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        synchronized (SymbolTable.class) {
+            id = ids.get(name);
+            if (id != null) return id;
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                constants = Arrays.copyOf(constants, size * 2);
+                variables = Arrays.copyOf(variables, size * 2);
+            }
+            String[] current = names;
+            current[size] = name;
+            names = current;     // Publicar la escritura
+            ids.put(name, size);
+            return size++;
+        }
+    }
+    
+    public static String name(int symbol) {
+        return names[symbol];
+    }
+    
+    // Identificador compacto del par (símbolo de predicado, aridad)
+    public static int signature(int symbol, int arity) {
+        long key = ((long) symbol << 32) | arity;
+        Integer id = signatures.get(key);
+        if (id != null) return id;
+        synchronized (SymbolTable.class) {
+            return signatures.computeIfAbsent(key, k -> signatureCount++);
+        }
+    }
+    
+    // Devuelve el término único para el símbolo (hash-consing)
+    public static Term term(int symbol, boolean isVariable) {
+        Term[] table = isVariable ? variables : constants;
+        Term term = symbol < table.length ? table[symbol] : null;
+        if (term != null) return term;
+        synchronized (SymbolTable.class) {
+            table = isVariable ? variables : constants;
+            if (table[symbol] == null) {
+                table[symbol] = new Term(names[symbol], symbol, isVariable);
+            }
+            return table[symbol];
+        }
+    }
+}
+
+// Tabla de hash-consing con referencias débiles: una instancia que ya nadie
+// usa puede recolectarse y su entrada desaparece con ella, así que la tabla
+// no retiene los literales derivados después de la consulta. Se divide en
+// franjas con su propio candado para los hilos de generación
+class WeakInterner<T> {
+    private static final int STRIPES = 64;
+    private final Map<T, WeakReference<T>>[] stripes = newStripes();
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> Map<T, WeakReference<T>>[] newStripes() {
+        Map<T, WeakReference<T>>[] stripes = (Map<T, WeakReference<T>>[]) new Map[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new WeakHashMap<>();
+        }
+        return stripes;
+    }
+    
+    public T intern(T candidate) {
+        Map<T, WeakReference<T>> stripe = stripes[(candidate.hashCode() * 0x9E3779B9) >>> 26];
+        synchronized (stripe) {
+            WeakReference<T> reference = stripe.get(candidate);
+            T existing = reference != null ? reference.get() : null;
+            if (existing != null) return existing;
+            stripe.put(candidate, new WeakReference<>(candidate));
+            return candidate;
+        }
+    }
+}
+
+// Lista creciente de enteros sin objetos intermedios
+class IntList {
+    private int[] data;
+    private int size;
+    
+    public IntList() {
+        this(8);
+    }
+    
+    public IntList(int capacity) {
+        this.data = new int[Math.max(capacity, 1)];
+    }
+    
+    public void add(int value) {
+        if (size == data.length) {
+            data = Arrays.copyOf(data, size * 2);
+        }
+        data[size++] = value;
+    }
+    
+    public int get(int index) {
+        return data[index];
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    // Elimina la primera aparición del valor sin conservar el orden
+    public boolean removeValue(int value) {
+        for (int i = 0; i < size; i++) {
+            if (data[i] == value) {
+                data[i] = data[--size];
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public void clear() {
+        size = 0;
+    }
+    
+    // Elimina los primeros count valores conservando el orden del resto
+    public void removeFirst(int count) {
+        System.arraycopy(data, count, data, 0, size - count);
+        size -= count;
+    }
+    
+    public int[] toArray() {
+        return Arrays.copyOf(data, size);
+    }
+}
+
 // Clase para representar un término (constante o variable)
+// Los términos son inmutables y únicos: se obtienen con Term.of
 class Term {
-    public String name;
-    public boolean isVariable;
+    public final String name;
+    public final int symbol;
+    public final boolean isVariable;
     
-    public Term(String name, boolean isVariable) {
+    Term(String name, int symbol, boolean isVariable) {
         this.name = name;
+        this.symbol = symbol;
         this.isVariable = isVariable;
     }
     
-    public Term copy() {
-        return new Term(this.name, this.isVariable);
+    public static Term of(String name, boolean isVariable) {
+        return SymbolTable.term(SymbolTable.intern(name), isVariable);
     }
     
     @Override
     public boolean equals(Object obj) {
-        if (this == obj) return true;
-        if (obj == null || getClass() != obj.getClass()) return false;
-        Term term = (Term) obj;
-        return isVariable == term.isVariable && name.equals(term.name);
+        return this == obj;
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(name, isVariable);
+        return symbol * 2 + (isVariable ? 1 : 0);
     }
     
     @Override
@@ -37,23 +205,48 @@ class Term {
 }
 
 // Clase para representar un predicado
+// Los predicados son inmutables y únicos mientras estén en uso: se obtienen
+// con Predicate.of y la tabla no impide recolectar los que ya no se usan
 class Predicate {
-    public String name;
-    public List<Term> terms;
-    public boolean negated;
+    private static final WeakInterner<Predicate> interned = new WeakInterner<>();
+    
+    public final String name;
+    public final int symbol;
+    public final int signature;     // Símbolo y aridad
+    public final List<Term> terms;
+    public final boolean negated;
+    private final int hash;
     
-    public Predicate(String name, List<Term> terms, boolean negated) {
+    private Predicate(String name, int symbol, int signature, List<Term> terms, boolean negated) {
         this.name = name;
+        this.symbol = symbol;
+        this.signature = signature;
         this.terms = terms;
         this.negated = negated;
-    }
-    
-    public Predicate copy() {
-        List<Term> newTerms = new ArrayList<>();
+        int h = signature * 2 + (negated ? 1 : 0);
         for (Term term : terms) {
-            newTerms.add(term.copy());
+            h = h * 31 + term.hashCode();
         }
-        return new Predicate(this.name, newTerms, this.negated);
+        this.hash = h;
+    }
+    
+    public static Predicate of(String name, List<Term> terms, boolean negated) {
+        int symbol = SymbolTable.intern(name);
+        int signature = SymbolTable.signature(symbol, terms.size());
+        return intern(new Predicate(name, symbol, signature, List.copyOf(terms), negated));
+    }
+    
+    // Mismo símbolo con otros argumentos; no vuelve a consultar la tabla de símbolos
+    public Predicate withTerms(Term[] newTerms) {
+        return intern(new Predicate(name, symbol, signature, List.of(newTerms), negated));
+    }
+    
+    public Predicate negate() {
+        return intern(new Predicate(name, symbol, signature, terms, !negated));
+    }
+    
+    private static Predicate intern(Predicate candidate) {
+        return interned.intern(candidate);
     }
     
     @Override
@@ -61,12 +254,16 @@ class Predicate {
         if (this == obj) return true;
         if (obj == null || getClass() != obj.getClass()) return false;
         Predicate pred = (Predicate) obj;
-        return negated == pred.negated && name.equals(pred.name) && terms.equals(pred.terms);
+        if (hash != pred.hash || signature != pred.signature || negated != pred.negated) return false;
+        for (int i = 0; i < terms.size(); i++) {
+            if (terms.get(i) != pred.terms.get(i)) return false;
+        }
+        return true;
     }
     
     @Override
     public int hashCode() {
-        return Objects.hash(name, terms, negated);
+        return hash;
     }
     
     @Override
@@ -90,6 +287,9 @@ class Predicate {
 class Clause {
     public List<Predicate> predicates;
     public int id;
+    public int[] parents;     // Identificadores de los padres (null si es de entrada)
+    public int[] parentLiterals;     // Índice del literal resuelto en cada padre
+    public boolean fromQuery;     // Desciende de la negación de la consulta
     
     public Clause(List<Predicate> predicates, int id) {
         this.predicates = predicates;
@@ -97,11 +297,7 @@ class Clause {
     }
     
     public Clause copy() {
-        List<Predicate> newPredicates = new ArrayList<>();
-        for (Predicate pred : predicates) {
-            newPredicates.add(pred.copy());
-        }
-        return new Clause(newPredicates, this.id);
+        return new Clause(new ArrayList<>(predicates), this.id);     // Los predicados son inmutables
     }
     
     @Override
@@ -131,37 +327,97 @@ class Clause {
 
 //-----Sistema de Unificación-----
 
+// Enlaces mutables de variables con registro para deshacerlos (trail)
+// Cada hilo de búsqueda usa su propia instancia
+class BindingTrail {
+    private Term[] bindings = new Term[64];     // Indexado por símbolo de variable
+    private int[] trail = new int[16];
+    private int top = 0;
+    
+    // Contadores de unificación del hilo dueño; la sesión los suma al terminar
+    long unifications;
+    long unified;
+    
+    public int mark() {
+        return top;
+    }
+    
+    // Deshace los enlaces hechos desde la marca, en O(enlaces)
+    public void undo(int mark) {
+        while (top > mark) {
+            bindings[trail[--top]] = null;
+        }
+    }
+    
+    public void bind(Term variable, Term value) {
+        if (variable.symbol >= bindings.length) {
+            bindings = Arrays.copyOf(bindings, Math.max(bindings.length * 2, variable.symbol + 1));
+        }
+        if (top == trail.length) {
+            trail = Arrays.copyOf(trail, top * 2);
+        }
+        bindings[variable.symbol] = value;
+        trail[top++] = variable.symbol;
+    }
+    
+    // Enlace directo de la variable, sin seguir la cadena (o null si está libre)
+    public Term get(Term variable) {
+        return variable.symbol < bindings.length ? bindings[variable.symbol] : null;
+    }
+    
+    // Sigue la cadena de enlaces hasta un término libre o una constante
+    public Term deref(Term term) {
+        while (term.isVariable && term.symbol < bindings.length) {
+            Term value = bindings[term.symbol];
+            if (value == null) break;
+            term = value;
+        }
+        return term;
+    }
+}
+
 // Clase para manejar la unificación
 class Unifier {
     
     // Aplica una sustitución a un término
     public static Term applySubstitution(Term term, Map<String, Term> substitution) {
-        if (term.isVariable && substitution.containsKey(term.name)) {
-            return substitution.get(term.name).copy();
+        if (term.isVariable) {
+            Term value = substitution.get(term.name);
+            if (value != null) return value;
         }
-        return term.copy();
+        return term;
     }
     
-    // Aplica una sustitución a un predicado
+    // Aplica una sustitución a un predicado; si nada cambia devuelve el mismo predicado
     public static Predicate applySubstitution(Predicate predicate, Map<String, Term> substitution) {
-        List<Term> newTerms = new ArrayList<>();
-        for (Term term : predicate.terms) {
-            newTerms.add(applySubstitution(term, substitution));
+        Term[] newTerms = null;
+        for (int i = 0; i < predicate.terms.size(); i++) {
+            Term term = predicate.terms.get(i);
+            Term replaced = applySubstitution(term, substitution);
+            if (replaced != term && newTerms == null) {
+                newTerms = predicate.terms.toArray(new Term[0]);
+            }
+            if (newTerms != null) newTerms[i] = replaced;
         }
-        return new Predicate(predicate.name, newTerms, predicate.negated);
+        return newTerms == null ? predicate : predicate.withTerms(newTerms);
     }
     
     // Aplica una sustitución a una cláusula
     public static Clause applySubstitution(Clause clause, Map<String, Term> substitution) {
-        List<Predicate> newPredicates = new ArrayList<>();
-        for (Predicate pred : clause.predicates) {
-            newPredicates.add(applySubstitution(pred, substitution));
+        List<Predicate> newPredicates = null;
+        for (int i = 0; i < clause.predicates.size(); i++) {
+            Predicate pred = clause.predicates.get(i);
+            Predicate replaced = applySubstitution(pred, substitution);
+            if (replaced != pred && newPredicates == null) {
+                newPredicates = new ArrayList<>(clause.predicates);
+            }
+            if (newPredicates != null) newPredicates.set(i, replaced);
         }
-        return new Clause(newPredicates, clause.id);
+        return new Clause(newPredicates == null ? clause.predicates : newPredicates, clause.id);
     }
     
     public static Map<String, Term> unify(Predicate p1, Predicate p2) {
-        if (!p1.name.equals(p2.name) || p1.terms.size() != p2.terms.size() || p1.negated == p2.negated) {
+        if (p1.signature != p2.signature || p1.negated == p2.negated) {
             return null;
         }
         
@@ -220,301 +476,4614 @@ class Unifier {
         
         return false;
     }
+    
+    // Unificación sobre enlaces mutables: no crea mapas y, si falla,
+    // deja el trail como estaba. Solo hay constantes y variables, así que
+    // basta comparar los términos desreferenciados (no hace falta occurs check)
+    public static boolean unify(Predicate p1, Predicate p2, BindingTrail trail) {
+        if (p1.signature != p2.signature || p1.negated == p2.negated) {
+            return false;
+        }
+        
+        trail.unifications++;
+        int mark = trail.mark();
+        boolean success = true;
+        for (int i = 0; i < p1.terms.size() && success; i++) {
+            Term t1 = trail.deref(p1.terms.get(i));
+            Term t2 = trail.deref(p2.terms.get(i));
+            
+            if (t1 == t2) continue;
+            if (t1.isVariable) {
+                trail.bind(t1, t2);
+            } else if (t2.isVariable) {
+                trail.bind(t2, t1);
+            } else {
+                trail.undo(mark);
+                success = false;
+            }
+        }
+        if (success) trail.unified++;
+        if (InferenceMetrics.recording()) UnificationEvent.emit(p1, success);
+        return success;
+    }
+    
+    // Aplica los enlaces actuales del trail a un predicado
+    public static Predicate applyBindings(Predicate predicate, BindingTrail trail) {
+        Term[] newTerms = null;
+        for (int i = 0; i < predicate.terms.size(); i++) {
+            Term term = predicate.terms.get(i);
+            Term replaced = trail.deref(term);
+            if (replaced != term && newTerms == null) {
+                newTerms = predicate.terms.toArray(new Term[0]);
+            }
+            if (newTerms != null) newTerms[i] = replaced;
+        }
+        return newTerms == null ? predicate : predicate.withTerms(newTerms);
+    }
 }
 
 //-----Convertidor a Forma Normal Conjuntiva (FNC)-----
 
-// Clase para convertir a Forma Normal Conjuntiva
-class FNCConverter {
+// Analizador léxico: lee caracteres de un Reader con un buffer propio, sin
+// cargar el texto completo. En modo línea el salto de línea separa sentencias
+class Lexer {
+    enum Kind { IDENT, LPAREN, RPAREN, COMMA, NOT, AND, OR, IMPLIES, IFF, FORALL, EXISTS, NEWLINE, EOF }
     
-    public static List<Clause> convertToFNC(List<String> sentences) {
-        List<Clause> clauses = new ArrayList<>();
-        int clauseId = 1;
-        
-        for (String sentence : sentences) {
-            List<Clause> sentenceClauses = processSentence(sentence, clauseId);
-            clauses.addAll(sentenceClauses);
-            clauseId += sentenceClauses.size();
+    private final Reader reader;
+    private final boolean lineMode;
+    private final char[] buffer = new char[8192];
+    private int position = 0;
+    private int limit = 0;
+    private int line = 1;
+    
+    // Token actual
+    public Kind kind;
+    public String text;
+    public int tokenLine;
+    
+    public Lexer(Reader reader, boolean lineMode) throws IOException {
+        this.reader = reader;
+        this.lineMode = lineMode;
+        next();
+    }
+    
+    private int peekChar() throws IOException {
+        if (position == limit) {
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
         }
-        
-        return standardizeVariables(clauses);
+        return buffer[position];
     }
     
-    private static List<Clause> standardizeVariables(List<Clause> clauses) {
-        List<Clause> standardized = new ArrayList<>();
-        int varCounter = 1;
-        
-        for (Clause clause : clauses) {
-            Map<String, String> varMap = new HashMap<>();
-            List<Predicate> newPredicates = new ArrayList<>();
-            
-            for (Predicate pred : clause.predicates) {
-                List<Term> newTerms = new ArrayList<>();
-                for (Term term : pred.terms) {
-                    if (term.isVariable) {
-                        if (!varMap.containsKey(term.name)) {
-                            varMap.put(term.name, "v" + varCounter++);
-                        }
-                        newTerms.add(new Term(varMap.get(term.name), true));
-                    } else {
-                        newTerms.add(term.copy());
-                    }
+    public void next() throws IOException {
+        int c = peekChar();
+        while (true) {
+            if (c == '#') {     // Comentario hasta el final de la línea
+                while (c != -1 && c != '\n') {
+                    position++;
+                    c = peekChar();
                 }
-                newPredicates.add(new Predicate(pred.name, newTerms, pred.negated));
             }
-            standardized.add(new Clause(newPredicates, clause.id));
+            if (c == -1 || !Character.isWhitespace(c) || (c == '\n' && lineMode)) break;
+            if (c == '\n') line++;
+            position++;
+            c = peekChar();
         }
         
-        return standardized;
-    }
-    
-    private static List<Clause> processSentence(String sentence, int startId) {
-        List<Clause> clauses = new ArrayList<>();
-        sentence = sentence.trim();     // Eliminar espacios en blanco extra
-        
-        // Procesar diferentes tipos de sentencias
-        if (sentence.contains("⇒")) {
-            // Implicación: A ⇒ B se convierte a ¬A ∨ B
-            String[] parts = sentence.split("⇒", 2);
-            String left = parts[0].trim();
-            String right = parts[1].trim();
-            
-            List<Predicate> leftPreds = extractPredicates(left, true);
-            List<Predicate> rightPreds = extractPredicates(right, false);
-            
-            List<Predicate> allPreds = new ArrayList<>();
-            allPreds.addAll(leftPreds);
-            allPreds.addAll(rightPreds);
-            
-            clauses.add(new Clause(allPreds, startId));
-            
-        } else if (sentence.contains("∀")) {
-            // Cuantificador universal - eliminar y procesar
-            sentence = removeQuantifiers(sentence);
-            clauses.addAll(processSentence(sentence, startId));
-            
-        } else if (sentence.contains("∧")) {
-            // Conjunción: separar en múltiples cláusulas
-            String[] conjunctions = sentence.split("∧");
-            for (String conj : conjunctions) {
-                List<Predicate> preds = extractPredicates(conj.trim(), false);
-                clauses.add(new Clause(preds, startId++));
+        tokenLine = line;
+        text = null;
+        if (c == -1) {
+            kind = Kind.EOF;
+            return;
+        }
+        if (Character.isLetterOrDigit(c) || c == '_') {
+            StringBuilder sb = new StringBuilder();
+            while (c != -1 && (Character.isLetterOrDigit(c) || c == '_')) {
+                sb.append((char) c);
+                position++;
+                c = peekChar();
             }
-        } else {
-             // Predicado simple
-            List<Predicate> preds = extractPredicates(sentence, false);
-            clauses.add(new Clause(preds, startId));
+            kind = Kind.IDENT;
+            text = sb.toString();
+            return;
         }
         
-        return clauses;
+        position++;
+        switch (c) {
+            case '\n': kind = Kind.NEWLINE; line++; break;
+            case '(': kind = Kind.LPAREN; break;
+            case ')': kind = Kind.RPAREN; break;
+            case ',': kind = Kind.COMMA; break;
+            case '¬': kind = Kind.NOT; break;
+            case '∧': kind = Kind.AND; break;
+            case '∨': kind = Kind.OR; break;
+            case '⇒': kind = Kind.IMPLIES; break;
+            case '⇔': kind = Kind.IFF; break;
+            case '∀': kind = Kind.FORALL; break;
+            case '∃': kind = Kind.EXISTS; break;
+            default:
+                throw error("carácter inesperado '" + (char) c + "'");
+        }
     }
     
-    private static String removeQuantifiers(String sentence) {
-        return sentence.replaceAll("∀[a-zA-Z]", "").replaceAll("∃[a-zA-Z]", "").trim();
+    public IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Error de sintaxis en la línea " + tokenLine + ": " + message);
     }
+}
+
+// Nodo del árbol sintáctico de una fórmula
+class Formula {
+    enum Kind { ATOM, NOT, AND, OR, IMPLIES, IFF, FORALL, EXISTS }
     
-    private static List<Predicate> extractPredicates(String text, boolean negate) {
-        List<Predicate> predicates = new ArrayList<>();
-        
-        // Manejar negación
-        if (text.startsWith("¬")) {
-            negate = !negate;
-            text = text.substring(1).trim();
+    public final Kind kind;
+    public final Predicate atom;     // ATOM
+    public final String variable;     // FORALL, EXISTS
+    public final Formula left;     // Operando (o cuerpo del cuantificador)
+    public final Formula right;
+    
+    private Formula(Kind kind, Predicate atom, String variable, Formula left, Formula right) {
+        this.kind = kind;
+        this.atom = atom;
+        this.variable = variable;
+        this.left = left;
+        this.right = right;
+    }
+    
+    public static Formula atom(Predicate atom) {
+        return new Formula(Kind.ATOM, atom, null, null, null);
+    }
+    
+    public static Formula unary(Kind kind, Formula operand) {
+        return new Formula(kind, null, null, operand, null);
+    }
+    
+    public static Formula binary(Kind kind, Formula left, Formula right) {
+        return new Formula(kind, null, null, left, right);
+    }
+    
+    public static Formula quantified(Kind kind, String variable, Formula body) {
+        return new Formula(kind, null, variable, body, null);
+    }
+}
+
+// Analizador descendente recursivo. Precedencia de mayor a menor:
+// ¬ y cuantificadores, ∧, ∨, ⇒ (asociativa a la derecha), ⇔.
+// El alcance de un cuantificador se extiende todo lo posible a la derecha
+class Parser {
+    private final Lexer lexer;
+    
+    public Parser(Lexer lexer) {
+        this.lexer = lexer;
+    }
+    
+    public static Formula parse(String text) {
+        try {
+            Parser parser = new Parser(new Lexer(new StringReader(text), false));
+            Formula formula = parser.formula();
+            parser.expect(Lexer.Kind.EOF, "fin de la sentencia");
+            return formula;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // No ocurre con StringReader
         }
-        
-        // Verificar si es un predicado con parámetros
-        if (text.contains("(") && text.contains(")")) {
-            Pattern pattern = Pattern.compile("([a-zA-Z]+)\\(([^)]+)\\)");
-            Matcher matcher = pattern.matcher(text);
-            
-            while (matcher.find()) {
-                String predName = matcher.group(1);
-                String params = matcher.group(2);
-                List<Term> terms = parseTerms(params);
-                predicates.add(new Predicate(predName, terms, negate));
+    }
+    
+    // Siguiente sentencia en modo línea, o null al final de la entrada
+    public Formula nextSentence() throws IOException {
+        while (lexer.kind == Lexer.Kind.NEWLINE) lexer.next();
+        if (lexer.kind == Lexer.Kind.EOF) return null;
+        Formula formula = formula();
+        if (lexer.kind != Lexer.Kind.EOF) expect(Lexer.Kind.NEWLINE, "fin de línea");
+        return formula;
+    }
+    
+    private Formula formula() throws IOException {
+        Formula left = implication();
+        if (lexer.kind == Lexer.Kind.IFF) {
+            lexer.next();
+            return Formula.binary(Formula.Kind.IFF, left, formula());
+        }
+        return left;
+    }
+    
+    private Formula implication() throws IOException {
+        Formula left = disjunction();
+        if (lexer.kind == Lexer.Kind.IMPLIES) {
+            lexer.next();
+            return Formula.binary(Formula.Kind.IMPLIES, left, implication());
+        }
+        return left;
+    }
+    
+    private Formula disjunction() throws IOException {
+        Formula left = conjunction();
+        while (lexer.kind == Lexer.Kind.OR) {
+            lexer.next();
+            left = Formula.binary(Formula.Kind.OR, left, conjunction());
+        }
+        return left;
+    }
+    
+    private Formula conjunction() throws IOException {
+        Formula left = unary();
+        while (lexer.kind == Lexer.Kind.AND) {
+            lexer.next();
+            left = Formula.binary(Formula.Kind.AND, left, unary());
+        }
+        return left;
+    }
+    
+    private Formula unary() throws IOException {
+        switch (lexer.kind) {
+            case NOT:
+                lexer.next();
+                return Formula.unary(Formula.Kind.NOT, unary());
+            case FORALL:
+            case EXISTS: {
+                Formula.Kind kind = lexer.kind == Lexer.Kind.FORALL ? Formula.Kind.FORALL : Formula.Kind.EXISTS;
+                lexer.next();
+                String variable = lexer.text;
+                expect(Lexer.Kind.IDENT, "variable del cuantificador");
+                return Formula.quantified(kind, variable, formula());
             }
-        } else {
-            // Predicado sin parámetros
-            predicates.add(new Predicate(text, new ArrayList<>(), negate));
+            case LPAREN: {
+                lexer.next();
+                Formula inner = formula();
+                expect(Lexer.Kind.RPAREN, "')'");
+                return inner;
+            }
+            default:
+                return atom();
         }
-        
-        return predicates;
     }
     
-    private static List<Term> parseTerms(String params) {
+    private Formula atom() throws IOException {
+        String name = lexer.text;
+        expect(Lexer.Kind.IDENT, "predicado");
         List<Term> terms = new ArrayList<>();
-        String[] termStrs = params.split(",");
-        
-        for (String termStr : termStrs) {
-            termStr = termStr.trim();
-            // Determinar si es variable minúscula o constante mayúscula
-            boolean isVariable = Character.isLowerCase(termStr.charAt(0));
-            terms.add(new Term(termStr, isVariable));
+        if (lexer.kind == Lexer.Kind.LPAREN) {
+            lexer.next();
+            do {
+                if (lexer.kind == Lexer.Kind.COMMA) lexer.next();
+                String termName = lexer.text;
+                expect(Lexer.Kind.IDENT, "término");
+                // Determinar si es variable minúscula o constante mayúscula
+                terms.add(Term.of(termName, Character.isLowerCase(termName.charAt(0))));
+            } while (lexer.kind == Lexer.Kind.COMMA);
+            expect(Lexer.Kind.RPAREN, "')'");
         }
-        
-        return terms;
+        return Formula.atom(Predicate.of(name, terms, false));
     }
     
-    public static List<Predicate> parsePredicates(String text, boolean negate) {
-        return extractPredicates(text, negate);
+    private void expect(Lexer.Kind kind, String what) throws IOException {
+        if (lexer.kind != kind) {
+            throw lexer.error("se esperaba " + what + (lexer.text != null ? " y se encontró '" + lexer.text + "'" : ""));
+        }
+        lexer.next();
     }
 }
 
-//-----Algoritmo de Resolución-----
-
-// Clase principal del motor de inferencia
-class ResolutionEngine {
-    private List<Clause> clauses;
-    private PrintWriter logWriter;
+// Clase para convertir a Forma Normal Conjuntiva
+class FNCConverter {
     private int nextClauseId;
+    private int varCounter;
+    private int boundCounter = 1;
+    private int skolemCounter;
+    private final List<Clause> clauses = new ArrayList<>();
     
-    public ResolutionEngine() {
-        this.clauses = new ArrayList<>();
-        this.nextClauseId = 1;
+    FNCConverter() {
+        this(1, 1, 1);
     }
     
-    public void initialize(List<String> sentences, String logFilePath) throws IOException {
-        this.logWriter = new PrintWriter(new FileWriter(logFilePath));
-        
-        // Convertir a FNC
-        List<Clause> initialClauses = FNCConverter.convertToFNC(sentences);
-        this.clauses.addAll(initialClauses);
-        this.nextClauseId = initialClauses.size() + 1;
-        
-        // Guardar cláusulas iniciales
-        logWriter.println("=== CLAUSULAS EN FORMA NORMAL CONJUNTIVA ===");
-        for (Clause clause : clauses) {
-            logWriter.println("C" + clause.id + ": " + clause);
+    // Continúa la numeración de una base ya compilada, para que las cláusulas
+    // nuevas no compartan variables ni constantes de Skolem con las anteriores
+    FNCConverter(int firstClauseId, int firstVariable, int firstSkolem) {
+        this.nextClauseId = firstClauseId;
+        this.varCounter = firstVariable;
+        this.skolemCounter = firstSkolem;
+    }
+    
+    public static List<Clause> convertToFNC(List<String> sentences) {
+        FNCConverter converter = new FNCConverter();
+        converter.addAll(sentences);
+        return converter.clauses;
+    }
+    
+    // Lee una sentencia por línea del Reader, sin cargar el texto completo
+    public static List<Clause> convertToFNC(Reader reader) throws IOException {
+        FNCConverter converter = new FNCConverter();
+        converter.read(reader);
+        return converter.clauses;
+    }
+    
+    public static List<Clause> convertToFNC(Path file) throws IOException {
+        FNCConverter converter = new FNCConverter();
+        converter.read(file);
+        return converter.clauses;
+    }
+    
+    void addAll(List<String> sentences) {
+        for (String sentence : sentences) {
+            long start = InferenceMetrics.startPhase();
+            Formula formula = Parser.parse(sentence);
+            InferenceMetrics.endPhase(Phase.PARSE, start);
+            add(formula);
         }
-        logWriter.println();
-        logWriter.flush();
     }
     
-    public boolean resolve(String query) {
-        logWriter.println("=== ALGORITMO DE RESOLUCIÓN ===");
-        logWriter.println("Consulta: " + query);
-        logWriter.println();
-        
-        // Negar la consulta y agregar a las cláusulas
-        List<Clause> tempClauses = new ArrayList<>(clauses);
-        List<Predicate> queryPreds = FNCConverter.parsePredicates(query, true);
-        Clause negatedQuery = new Clause(queryPreds, nextClauseId++);
-        tempClauses.add(negatedQuery);
-        
-        logWriter.println("Agregando negación de consulta: C" + negatedQuery.id + ": " + negatedQuery);
-        logWriter.println();
-        
-        int step = 1;
-        Set<String> usedPairs = new HashSet<>();
-        
+    void read(Reader reader) throws IOException {
+        Parser parser = new Parser(new Lexer(reader, true));
         while (true) {
-            boolean newClauseGenerated = false;
-            
-            for (int i = 0; i < tempClauses.size(); i++) {
-                for (int j = i + 1; j < tempClauses.size(); j++) {
-                    Clause c1 = tempClauses.get(i);
-                    Clause c2 = tempClauses.get(j);
-                    
-                    String pairKey = Math.min(c1.id, c2.id) + "-" + Math.max(c1.id, c2.id);
-                    if (usedPairs.contains(pairKey)) continue;
-                    
-                    Clause resolvent = resolveClauses(c1, c2);
-                    if (resolvent != null) {
-                        usedPairs.add(pairKey);
-                        
-                        logWriter.println("Paso " + step++ + ":");
-                        logWriter.println("Resolviendo C" + c1.id + " y C" + c2.id);
-                        logWriter.println("C" + c1.id + ": " + c1);
-                        logWriter.println("C" + c2.id + ": " + c2);
-                        logWriter.println("Resolvente: " + resolvent);
-                        logWriter.println();
-                        logWriter.flush();
-                        
-                        if (resolvent.predicates.isEmpty()) {
-                            logWriter.println("¡Se encontró la cláusula vacía! La consulta es verdadera.");
-                            logWriter.close();
-                            return true;
-                        }
-                        
-                        // Verificar si la cláusula ya existe
-                        boolean exists = false;
-                        for (Clause existing : tempClauses) {
-                            if (existing.equals(resolvent)) {
-                                exists = true;
-                                break;
-                            }
-                        }
-                        
-                        if (!exists) {
-                            resolvent.id = nextClauseId++;
-                            tempClauses.add(resolvent);
-                            newClauseGenerated = true;
-                        }
-                    }
-                }
-            }
-            
-            if (!newClauseGenerated) {
-                logWriter.println("No se pueden generar más cláusulas. La consulta es falsa.");
-                logWriter.close();
-                return false;
-            }
+            long start = InferenceMetrics.startPhase();
+            Formula formula = parser.nextSentence();
+            InferenceMetrics.endPhase(Phase.PARSE, start);
+            if (formula == null) break;
+            add(formula);
         }
     }
     
-    private Clause resolveClauses(Clause c1, Clause c2) {
-        for (Predicate p1 : c1.predicates) {
-            for (Predicate p2 : c2.predicates) {
-                if (p1.name.equals(p2.name) && p1.negated != p2.negated) {
-                    Map<String, Term> substitution = Unifier.unify(p1, p2);
-                    if (substitution != null) {
-                        // Crear resolvente
-                        List<Predicate> newPredicates = new ArrayList<>();
-                        
-                        // Agregar todos los predicados de c1 excepto p1
-                        for (Predicate pred : c1.predicates) {
-                            if (!pred.equals(p1)) {
-                                newPredicates.add(Unifier.applySubstitution(pred, substitution));
-                            }
-                        }
-                        
-                        // Agregar todos los predicados de c2 excepto p2
-                        for (Predicate pred : c2.predicates) {
-                            if (!pred.equals(p2)) {
-                                newPredicates.add(Unifier.applySubstitution(pred, substitution));
-                            }
-                        }
-                        
-                        // Eliminar duplicados
-                        List<Predicate> uniquePreds = new ArrayList<>();
-                        for (Predicate pred : newPredicates) {
-                            if (!containsPredicate(uniquePreds, pred)) {
-                                uniquePreds.add(pred);
-                            }
-                        }
-                        
-                        return new Clause(uniquePreds, -1);     // ID temporal
-                    }
+    // Proyecta el archivo en memoria y lo decodifica a medida que se analiza
+    void read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            InputStream in = new InputStream() {
+                @Override
+                public int read() {
+                    return mapped.hasRemaining() ? mapped.get() & 0xFF : -1;
                 }
-            }
+                
+                @Override
+                public int read(byte[] bytes, int offset, int length) {
+                    if (!mapped.hasRemaining()) return -1;
+                    int count = Math.min(length, mapped.remaining());
+                    mapped.get(bytes, offset, count);
+                    return count;
+                }
+            };
+            read(new InputStreamReader(in, StandardCharsets.UTF_8));
         }
-        return null;
     }
     
-    private boolean containsPredicate(List<Predicate> list, Predicate pred) {
-        for (Predicate p : list) {
-            if (p.equals(pred)) return true;
-        }
-        return false;
+    List<Clause> clauses() {
+        return clauses;
     }
-}
-
-
-//-----Clase Principal con Ejemplos-----
-public class SistemaInferencia {
     
-    public static void main(String[] args) {
+    int nextVariable() {
+        return varCounter;
+    }
+    
+    int nextSkolem() {
+        return skolemCounter;
+    }
+    
+    // Siguiente número libre tras un nombre de la forma prefijo + número
+    // (v12, Sk3), o current si el nombre no tiene esa forma
+    static int nextAfter(String name, String prefix, int current) {
+        if (!name.startsWith(prefix) || name.length() == prefix.length()) return current;
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) return current;
+        }
         try {
+            return Math.max(current, Integer.parseInt(name.substring(prefix.length())) + 1);
+        } catch (NumberFormatException e) {
+            return current;
+        }
+    }
+    
+    // Cláusulas de la negación de la consulta; sus variables libres quedan como
+    // variables. Las constantes de Skolem empiezan en firstSkolem, después de
+    // las de la base, para no confundirse con ellas
+    public static List<Clause> negateQuery(String query, int firstId, int firstSkolem) {
+        return negateQuery(query, firstId, firstSkolem, false);
+    }
+    
+    // Con answer, cada cláusula lleva además el literal de respuesta
+    // #Respuesta(x1, ..., xn) sobre las variables libres de la consulta, en
+    // orden de aparición; ninguna sentencia puede producir ese símbolo
+    public static List<Clause> negateQuery(String query, int firstId, int firstSkolem, boolean answer) {
+        FNCConverter converter = new FNCConverter(firstId, 1, firstSkolem);
+        List<Clause> result = new ArrayList<>();
+        int id = firstId;
+        long start = InferenceMetrics.startPhase();
+        Formula parsed = Parser.parse(query);
+        Formula negated = Formula.unary(Formula.Kind.NOT, parsed);
+        start = InferenceMetrics.endPhase(Phase.PARSE, start);
+        Predicate answerLiteral = null;
+        if (answer) {
+            Set<Term> free = new LinkedHashSet<>();
+            freeVariables(parsed, new HashSet<>(), free);
+            answerLiteral = Predicate.of(ANSWER, new ArrayList<>(free), false);
+        }
+        for (List<Predicate> literals : converter.toClauses(negated)) {
+            if (answerLiteral != null) literals.add(answerLiteral);
+            result.add(new Clause(literals, id++));
+        }
+        InferenceMetrics.endPhase(Phase.CNF, start);
+        return result;
+    }
+    
+    static final String ANSWER = "#Respuesta";
+    
+    private static void freeVariables(Formula f, Set<String> bound, Set<Term> free) {
+        switch (f.kind) {
+            case ATOM:
+                for (Term term : f.atom.terms) {
+                    if (term.isVariable && !bound.contains(term.name)) free.add(term);
+                }
+                break;
+            case FORALL:
+            case EXISTS: {
+                Set<String> inner = new HashSet<>(bound);
+                inner.add(f.variable);
+                freeVariables(f.left, inner, free);
+                break;
+            }
+            default:
+                freeVariables(f.left, bound, free);
+                if (f.right != null) freeVariables(f.right, bound, free);
+        }
+    }
+    
+    private void add(Formula formula) {
+        long start = InferenceMetrics.startPhase();
+        List<List<Predicate>> clauseLiterals = toClauses(formula);
+        start = InferenceMetrics.endPhase(Phase.CNF, start);
+        for (List<Predicate> literals : clauseLiterals) {
+            clauses.add(standardizeVariables(new Clause(literals, nextClauseId++)));
+        }
+        InferenceMetrics.endPhase(Phase.STANDARDIZE, start);
+    }
+    
+    private List<List<Predicate>> toClauses(Formula formula) {
+        return distribute(normalize(formula, false, new HashMap<>()));
+    }
+    
+    // Renombra las variables de la cláusula con nombres únicos v1, v2, ...
+    private Clause standardizeVariables(Clause clause) {
+        Map<String, Term> varMap = new HashMap<>();
+        for (Predicate pred : clause.predicates) {
+            for (Term term : pred.terms) {
+                if (term.isVariable && !varMap.containsKey(term.name)) {
+                    varMap.put(term.name, Term.of("v" + varCounter++, true));
+                }
+            }
+        }
+        return Unifier.applySubstitution(clause, varMap);
+    }
+    
+    // Elimina ⇒ y ⇔, empuja las negaciones hasta los átomos y quita los
+    // cuantificadores. Las variables universales se renombran para que no
+    // choquen entre cuantificadores distintos; las existenciales se sustituyen
+    // por constantes de Skolem. Si el cuerpo de un ∃ depende de una variable
+    // universal (o libre) haría falta una función de Skolem, que los términos
+    // no admiten, y la sentencia se rechaza
+    private Formula normalize(Formula f, boolean negate, Map<String, Term> env) {
+        switch (f.kind) {
+            case ATOM: {
+                Predicate atom = Unifier.applySubstitution(f.atom, env);
+                return Formula.atom(negate ? atom.negate() : atom);
+            }
+            case NOT:
+                return normalize(f.left, !negate, env);
+            case AND:
+            case OR: {
+                boolean and = (f.kind == Formula.Kind.AND) != negate;
+                return Formula.binary(and ? Formula.Kind.AND : Formula.Kind.OR,
+                    normalize(f.left, negate, env), normalize(f.right, negate, env));
+            }
+            case IMPLIES:
+                // A ⇒ B se convierte a ¬A ∨ B
+                return Formula.binary(negate ? Formula.Kind.AND : Formula.Kind.OR,
+                    normalize(f.left, !negate, env), normalize(f.right, negate, env));
+            case IFF: {
+                Formula forward = Formula.binary(Formula.Kind.IMPLIES, f.left, f.right);
+                Formula backward = Formula.binary(Formula.Kind.IMPLIES, f.right, f.left);
+                return normalize(Formula.binary(Formula.Kind.AND, forward, backward), negate, env);
+            }
+            default: {
+                boolean universal = (f.kind == Formula.Kind.FORALL) != negate;
+                Map<String, Term> inner = new HashMap<>(env);
+                if (universal) {
+                    inner.put(f.variable, Term.of(f.variable + "_" + boundCounter++, true));
+                } else {
+                    requireSkolemConstant(f, env);
+                    inner.put(f.variable, Term.of("Sk" + skolemCounter++, false));
+                }
+                return normalize(f.left, negate, inner);
+            }
+        }
+    }
+    
+    // Una constante de Skolem solo es correcta si el cuerpo del ∃ no menciona
+    // variables universales de cuantificadores exteriores ni variables libres
+    private static void requireSkolemConstant(Formula exists, Map<String, Term> env) {
+        Set<String> bound = new HashSet<>();
+        bound.add(exists.variable);
+        Set<Term> free = new LinkedHashSet<>();
+        freeVariables(exists.left, bound, free);
+        for (Term term : free) {
+            Term value = env.get(term.name);
+            if (value == null || value.isVariable) {
+                throw new IllegalArgumentException("El cuantificador de " + exists.variable + " depende de "
+                    + term.name + ": haría falta una función de Skolem, que los términos no admiten");
+            }
+        }
+    }
+    
+    // Distribuye ∨ sobre ∧ sobre una fórmula normalizada
+    private static List<List<Predicate>> distribute(Formula f) {
+        switch (f.kind) {
+            case ATOM:
+                return new ArrayList<>(List.of(new ArrayList<>(List.of(f.atom))));
+            case AND: {
+                List<List<Predicate>> result = distribute(f.left);
+                result.addAll(distribute(f.right));
+                return result;
+            }
+            default: {
+                List<List<Predicate>> result = new ArrayList<>();
+                List<List<Predicate>> right = distribute(f.right);
+                for (List<Predicate> l : distribute(f.left)) {
+                    for (List<Predicate> r : right) {
+                        List<Predicate> merged = new ArrayList<>(l);
+                        for (Predicate pred : r) {
+                            if (!merged.contains(pred)) merged.add(pred);
+                        }
+                        result.add(merged);
+                    }
+                }
+                return result;
+            }
+        }
+    }
+}
+
+//-----Subsunción-----
+
+// Comprobación de subsunción entre cláusulas
+class Subsumption {
+    public static final int BUCKETS = 8;
+    public static final int FEATURES = 4 + 2 * BUCKETS;
+    
+    // Vector de características: número de literales, positivos, negativos,
+    // apariciones de constantes y literales por firma (en cubetas) y polaridad.
+    // Si C subsume a D, cada característica de C es menor o igual que la de D.
+    // Los términos no tienen funciones, así que la profundidad se reduce a
+    // contar constantes. La cubeta sale del nombre y la aridad, no del
+    // identificador interno, para que los vectores guardados en una
+    // instantánea sigan valiendo en otro proceso
+    public static int[] features(Clause clause) {
+        int[] features = new int[FEATURES];
+        for (Predicate pred : clause.predicates) {
+            features[0]++;
+            features[pred.negated ? 2 : 1]++;
+            for (Term term : pred.terms) {
+                if (!term.isVariable) features[3]++;
+            }
+            features[4 + 2 * bucket(pred) + (pred.negated ? 1 : 0)]++;
+        }
+        return features;
+    }
+    
+    private static int bucket(Predicate pred) {
+        return Math.floorMod(pred.name.hashCode() * 31 + pred.terms.size(), BUCKETS);
+    }
+    
+    // C subsume a D si existe θ tal que cada literal de Cθ es un literal
+    // distinto de D. Solo se enlazan variables de C; los términos de D se
+    // toman tal cual aunque compartan nombres de variable con C
+    public static boolean subsumes(Clause c, Clause d, BindingTrail trail) {
+        if (c.predicates.size() > d.predicates.size()) return false;
+        return match(c, d, 0, new boolean[d.predicates.size()], trail);
+    }
+    
+    private static boolean match(Clause c, Clause d, int index, boolean[] used, BindingTrail trail) {
+        if (index == c.predicates.size()) return true;
+        
+        Predicate lit = c.predicates.get(index);
+        for (int j = 0; j < d.predicates.size(); j++) {
+            Predicate target = d.predicates.get(j);
+            if (used[j] || target.signature != lit.signature || target.negated != lit.negated) continue;
+            
+            int mark = trail.mark();
+            if (matchTerms(lit, target, trail)) {
+                used[j] = true;
+                if (match(c, d, index + 1, used, trail)) {
+                    trail.undo(mark);
+                    return true;
+                }
+                used[j] = false;
+            }
+            trail.undo(mark);
+        }
+        return false;
+    }
+    
+    private static boolean matchTerms(Predicate pattern, Predicate target, BindingTrail trail) {
+        for (int i = 0; i < pattern.terms.size(); i++) {
+            Term t1 = pattern.terms.get(i);
+            Term t2 = target.terms.get(i);
+            if (t1.isVariable) {
+                Term bound = trail.get(t1);
+                if (bound == null) {
+                    trail.bind(t1, t2);
+                } else if (bound != t2) {
+                    return false;
+                }
+            } else if (t1 != t2) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
+
+// Índice de vectores de características (trie) para encontrar candidatos de subsunción.
+// Guarda identificadores; las cláusulas se obtienen con el resolver solo
+// cuando hay que comprobar un candidato
+class FeatureVectorIndex {
+    private static class Node {
+        final TreeMap<Integer, Node> children = new TreeMap<>();
+        final IntList ids = new IntList(2);
+    }
+    
+    private final Node root = new Node();
+    private final IntFunction<Clause> resolver;
+    
+    public FeatureVectorIndex(IntFunction<Clause> resolver) {
+        this.resolver = resolver;
+    }
+    
+    public void add(Clause clause) {
+        add(clause.id, Subsumption.features(clause));
+    }
+    
+    public void add(int id, int[] features) {
+        Node node = root;
+        for (int value : features) {
+            node = node.children.computeIfAbsent(value, k -> new Node());
+        }
+        node.ids.add(id);
+    }
+    
+    public void remove(Clause clause) {
+        Node node = root;
+        for (int value : Subsumption.features(clause)) {
+            node = node.children.get(value);
+            if (node == null) return;
+        }
+        node.ids.removeValue(clause.id);
+    }
+    
+    // Subsunción hacia adelante: alguna cláusula guardada que subsuma a la dada.
+    // Se ignoran las cláusulas cuyo identificador está en excluded
+    public Clause findSubsumer(Clause clause, BindingTrail trail, BitSet excluded) {
+        return findSubsumer(root, Subsumption.features(clause), 0, clause, trail, excluded);
+    }
+    
+    private Clause findSubsumer(Node node, int[] features, int depth, Clause clause, BindingTrail trail, BitSet excluded) {
+        if (depth == features.length) {
+            for (int i = 0; i < node.ids.size(); i++) {
+                int id = node.ids.get(i);
+                if (excluded.get(id)) continue;
+                Clause candidate = resolver.apply(id);
+                if (Subsumption.subsumes(candidate, clause, trail)) return candidate;
+            }
+            return null;
+        }
+        for (Node child : node.children.headMap(features[depth], true).values()) {
+            Clause found = findSubsumer(child, features, depth + 1, clause, trail, excluded);
+            if (found != null) return found;
+        }
+        return null;
+    }
+    
+    // Subsunción hacia atrás: cláusulas guardadas subsumidas por la dada
+    public List<Clause> findSubsumed(Clause clause, BindingTrail trail, BitSet excluded) {
+        List<Clause> result = new ArrayList<>();
+        findSubsumed(root, Subsumption.features(clause), 0, clause, trail, excluded, result);
+        return result;
+    }
+    
+    private void findSubsumed(Node node, int[] features, int depth, Clause clause, BindingTrail trail,
+                              BitSet excluded, List<Clause> result) {
+        if (depth == features.length) {
+            for (int i = 0; i < node.ids.size(); i++) {
+                int id = node.ids.get(i);
+                if (excluded.get(id)) continue;
+                Clause candidate = resolver.apply(id);
+                if (Subsumption.subsumes(clause, candidate, trail)) result.add(candidate);
+            }
+            return;
+        }
+        for (Node child : node.children.tailMap(features[depth], true).values()) {
+            findSubsumed(child, features, depth + 1, clause, trail, excluded, result);
+        }
+    }
+}
+
+//-----Simplificación del conjunto de cláusulas-----
+
+// Pasos de simplificación (SearchOptions.simplify). Los de la entrada se
+// aplican una vez por consulta a la base y a la negación; los de los
+// resolventes, a cada resolvente antes de conservarlo. Como el conjunto de
+// soporte, RELEVANCE y PURE_LITERALS suponen que la base es consistente: una
+// contradicción que no pasa por la consulta deja de encontrarse
+enum Simplification {
+    TAUTOLOGIES,     // Entrada y resolventes: cláusulas con P y ¬P
+    CONDENSATION,    // Resolventes: unir literales unificables si el factor subsume a la cláusula
+    RELEVANCE,       // Entrada: solo las cláusulas conectadas con la consulta por literales complementarios
+    PURE_LITERALS    // Entrada: cláusulas con un literal sin complementario en ninguna otra
+}
+
+// Reglas de simplificación que solo miran una cláusula
+class Simplifier {
+    
+    // La cláusula tiene un literal y su negación exacta
+    public static boolean isTautology(Clause clause) {
+        List<Predicate> predicates = clause.predicates;
+        for (int i = 0; i < predicates.size(); i++) {
+            Predicate negated = predicates.get(i).negate();
+            for (int j = i + 1; j < predicates.size(); j++) {
+                if (predicates.get(j) == negated) return true;
+            }
+        }
+        return false;
+    }
+    
+    // Condensación: si dos literales del mismo signo se unifican con σ y Cσ
+    // (sin repetidos) subsume a C, C se reemplaza por Cσ, que es equivalente
+    // y más corta. Se repite mientras haya algún par así. Devuelve la lista
+    // de literales resultante, o null si no cambió nada
+    public static List<Predicate> condense(Clause clause, BindingTrail trail) {
+        List<Predicate> current = clause.predicates;
+        boolean changed = false;
+        search:
+        while (true) {
+            for (int i = 0; i < current.size(); i++) {
+                Predicate p1 = current.get(i);
+                for (int j = i + 1; j < current.size(); j++) {
+                    Predicate p2 = current.get(j);
+                    if (p1.signature != p2.signature || p1.negated != p2.negated) continue;
+                    int mark = trail.mark();
+                    if (!Unifier.unify(p1, p2.negate(), trail)) {     // unify pide signos opuestos
+                        trail.undo(mark);
+                        continue;
+                    }
+                    List<Predicate> factor = new ArrayList<>(current.size() - 1);
+                    for (Predicate pred : current) {
+                        Predicate bound = Unifier.applyBindings(pred, trail);
+                        if (!factor.contains(bound)) factor.add(bound);
+                    }
+                    trail.undo(mark);
+                    if (Subsumption.subsumes(new Clause(factor, -1), new Clause(current, -1), trail)) {
+                        current = factor;
+                        changed = true;
+                        continue search;
+                    }
+                }
+            }
+            return changed ? current : null;
+        }
+    }
+}
+
+// Cuánto quitó la simplificación en una consulta
+class SimplificationStats {
+    public long tautologies;
+    public long irrelevant;
+    public long pure;
+    public long condensed;     // Resolventes acortados
+    public long condensedLiterals;     // Literales quitados por condensación
+    
+    public boolean isEmpty() {
+        return tautologies + irrelevant + pure + condensed == 0;
+    }
+    
+    @Override
+    public String toString() {
+        return "tautologías=" + tautologies + ", irrelevantes=" + irrelevant + ", puras=" + pure
+            + ", condensadas=" + condensed + " (" + condensedLiterals + " literales)";
+    }
+}
+
+//-----Registro de la prueba-----
+
+// Niveles de detalle del registro
+enum LogLevel {
+    OFF,        // Sin registro: no se abre el archivo
+    SUMMARY,    // Consulta y respuesta
+    PROOF,      // Además las cláusulas de entrada y la prueba
+    TRACE       // Todos los pasos de resolución
+}
+
+// Registro asíncrono: los eventos pasan por un buffer circular acotado a un
+// hilo escritor que los escribe por lotes. Los textos de las cláusulas se
+// construyen en el hilo escritor y solo si el nivel activo los necesita
+class ProofLogger implements Closeable {
+    private static final int CAPACITY = 8192;
+    private static final Object END = new Object();
+    
+    private final LogLevel level;
+    private final BlockingQueue<Object> buffer;
+    private final Thread writerThread;
+    private volatile IOException failure;
+    private volatile boolean closed;
+    
+    // Paso de resolución pendiente de formatear
+    private static class StepEvent {
+        final int step;
+        final int partnerId;
+        final int givenId;
+        final Clause partner;
+        final Clause given;
+        final Clause resolvent;
+        
+        StepEvent(int step, Clause partner, Clause given, Clause resolvent) {
+            this.step = step;
+            this.partnerId = partner.id;
+            this.givenId = given.id;
+            this.partner = partner;
+            this.given = given;
+            this.resolvent = resolvent;
+        }
+    }
+    
+    // Cláusula de la prueba con sus padres
+    private static class ProofLine {
+        final Clause clause;
+        
+        ProofLine(Clause clause) {
+            this.clause = clause;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("C" + clause.id + ": " + clause);
+            if (clause.parents == null) {
+                sb.append("    [entrada]");
+            } else {
+                sb.append("    [C").append(clause.parents[0]).append(".").append(clause.parentLiterals[0] + 1)
+                  .append(", C").append(clause.parents[1]).append(".").append(clause.parentLiterals[1] + 1).append("]");
+            }
+            return sb.toString();
+        }
+    }
+    
+    // Registro desactivado, sin archivo ni hilo
+    public static ProofLogger disabled() {
+        try {
+            return new ProofLogger(null, LogLevel.OFF);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);     // No ocurre: en OFF no se abre nada
+        }
+    }
+    
+    public ProofLogger(String logFilePath, LogLevel level) throws IOException {
+        this.level = level;
+        if (level == LogLevel.OFF) {
+            this.buffer = null;
+            this.writerThread = null;
+            return;
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(logFilePath), "UTF-8"));
+        this.buffer = new ArrayBlockingQueue<>(CAPACITY);
+        this.writerThread = new Thread(() -> drain(out), "proof-logger");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+    
+    public boolean isEnabled(LogLevel required) {
+        return level != LogLevel.OFF && !closed && level.compareTo(required) >= 0;
+    }
+    
+    public void println(LogLevel required, String line) {
+        if (isEnabled(required)) enqueue(line);
+    }
+    
+    public void println(LogLevel required) {
+        if (isEnabled(required)) enqueue("");
+    }
+    
+    public void step(int step, Clause partner, Clause given, Clause resolvent) {
+        if (isEnabled(LogLevel.TRACE)) enqueue(new StepEvent(step, partner, given, resolvent));
+    }
+    
+    // La prueba se registra en los niveles PROOF y TRACE
+    public void proof(List<Clause> proof) {
+        if (!isEnabled(LogLevel.PROOF)) return;
+        enqueue("=== PRUEBA ===");
+        for (Clause clause : proof) {
+            enqueue(new ProofLine(clause));
+        }
+        enqueue("");
+    }
+    
+    // Se bloquea si el escritor va atrasado. Si el escritor terminó por un
+    // error de escritura nadie vacía el buffer y el evento se descarta; close
+    // informa el error
+    private void enqueue(Object event) {
+        try {
+            while (failure == null && writerThread.isAlive()) {
+                if (buffer.offer(event, 100, TimeUnit.MILLISECONDS)) return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private void drain(Writer out) {
+        List<Object> batch = new ArrayList<>();
+        try (Writer writer = out) {
+            while (true) {
+                batch.add(buffer.take());
+                buffer.drainTo(batch);
+                for (Object event : batch) {
+                    if (event == END) {
+                        writer.flush();
+                        return;
+                    }
+                    write(writer, event);
+                }
+                writer.flush();
+                batch.clear();
+            }
+        } catch (IOException e) {
+            failure = e;
+            buffer.clear();     // Libera a quien esté esperando lugar
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private static void write(Writer writer, Object event) throws IOException {
+        if (event instanceof StepEvent) {
+            StepEvent e = (StepEvent) event;
+            writer.write("Paso " + e.step + ":\n");
+            writer.write("Resolviendo C" + e.partnerId + " y C" + e.givenId + "\n");
+            writer.write("C" + e.partnerId + ": " + e.partner + "\n");
+            writer.write("C" + e.givenId + ": " + e.given + "\n");
+            writer.write("Resolvente: " + e.resolvent + "\n\n");
+        } else {
+            writer.write(event + "\n");
+        }
+    }
+    
+    // Espera a que el escritor vacíe el buffer y cierra el archivo; lanza el
+    // error de escritura si lo hubo
+    @Override
+    public void close() throws IOException {
+        if (writerThread == null || closed) return;
+        enqueue(END);
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) throw failure;
+    }
+}
+
+//-----Métricas y eventos de JFR-----
+
+// Fases medidas por InferenceMetrics
+enum Phase {
+    PARSE,          // Análisis léxico y sintáctico
+    CNF,            // Normalización y distribución a FNC
+    STANDARDIZE,    // Renombrado de variables por cláusula
+    SEARCH          // Saturación de una consulta
+}
+
+// Métricas globales del proceso: contadores de la búsqueda acumulados por
+// sesión y tiempos por fase. Están desactivadas por defecto; así solo cuestan
+// una lectura del indicador por sentencia y por consulta. Las sesiones llevan
+// sus propios contadores (ResolutionStats) y los suman aquí al terminar
+class InferenceMetrics {
+    private static volatile boolean enabled = false;
+    private static final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+    private static final LongAdder queries = new LongAdder();
+    private static final LongAdder unificationAttempts = new LongAdder();
+    private static final LongAdder unificationSuccesses = new LongAdder();
+    private static final LongAdder generated = new LongAdder();
+    private static final LongAdder kept = new LongAdder();
+    private static final LongAdder duplicates = new LongAdder();
+    private static final LongAdder forwardSubsumed = new LongAdder();
+    private static final LongAdder backwardSubsumed = new LongAdder();
+    private static final LongAdder evicted = new LongAdder();
+    private static long maxPassive;
+    private static long maxRetained;
+    
+    static {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new LongAdder();
+        }
+    }
+    
+    public static void setEnabled(boolean value) {
+        enabled = value;
+    }
+    
+    public static boolean isEnabled() {
+        return enabled;
+    }
+    
+    // Crear el primer evento de JFR carga Flight Recorder entero (cientos de
+    // ms), así que los eventos solo se crean si ya hay una grabación iniciada
+    static boolean recording() {
+        return FlightRecorder.isInitialized();
+    }
+    
+    // Inicio de una fase, o 0 si las métricas están desactivadas
+    static long startPhase() {
+        return enabled ? System.nanoTime() : 0;
+    }
+    
+    // Acumula el tiempo desde start y devuelve el instante actual para
+    // encadenar la fase siguiente (0 si la medición no estaba activa)
+    static long endPhase(Phase phase, long start) {
+        if (start == 0) return 0;
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()].add(now - start);
+        return now;
+    }
+    
+    // Suma las estadísticas de una sesión terminada
+    static void record(ResolutionStats stats) {
+        if (!enabled) return;
+        queries.increment();
+        unificationAttempts.add(stats.unificationAttempts);
+        unificationSuccesses.add(stats.unificationSuccesses);
+        generated.add(stats.generated);
+        kept.add(stats.kept);
+        duplicates.add(stats.duplicates);
+        forwardSubsumed.add(stats.forwardSubsumed);
+        backwardSubsumed.add(stats.backwardSubsumed);
+        evicted.add(stats.evicted);
+        synchronized (InferenceMetrics.class) {
+            maxPassive = Math.max(maxPassive, stats.maxPassive);
+            for (ClauseSetSample sample : stats.samples) {
+                maxRetained = Math.max(maxRetained, sample.retained);
+            }
+        }
+    }
+    
+    // Valores actuales por nombre; los tiempos van en nanosegundos
+    public static Map<String, Long> snapshot() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        values.put("queries", queries.sum());
+        values.put("unification.attempts", unificationAttempts.sum());
+        values.put("unification.successes", unificationSuccesses.sum());
+        values.put("resolvents.generated", generated.sum());
+        values.put("resolvents.kept", kept.sum());
+        values.put("dropped.duplicates", duplicates.sum());
+        values.put("dropped.forwardSubsumed", forwardSubsumed.sum());
+        values.put("dropped.backwardSubsumed", backwardSubsumed.sum());
+        values.put("dropped.evicted", evicted.sum());
+        synchronized (InferenceMetrics.class) {
+            values.put("clauses.maxPassive", maxPassive);
+            values.put("clauses.maxRetained", maxRetained);
+        }
+        for (Phase phase : Phase.values()) {
+            values.put("phase." + phase.name().toLowerCase() + ".nanos", phaseNanos[phase.ordinal()].sum());
+        }
+        return values;
+    }
+    
+    public static void reset() {
+        for (LongAdder adder : phaseNanos) {
+            adder.reset();
+        }
+        for (LongAdder adder : List.of(queries, unificationAttempts, unificationSuccesses, generated,
+                                       kept, duplicates, forwardSubsumed, backwardSubsumed, evicted)) {
+            adder.reset();
+        }
+        synchronized (InferenceMetrics.class) {
+            maxPassive = 0;
+            maxRetained = 0;
+        }
+    }
+}
+
+// Tamaño de los conjuntos de cláusulas en un instante de la búsqueda
+class ClauseSetSample {
+    public final long elapsedNanos;
+    public final long givenClauses;
+    public final int passive;
+    public final int active;
+    public final long retained;
+    
+    public ClauseSetSample(long elapsedNanos, long givenClauses, int passive, int active, long retained) {
+        this.elapsedNanos = elapsedNanos;
+        this.givenClauses = givenClauses;
+        this.passive = passive;
+        this.active = active;
+        this.retained = retained;
+    }
+    
+    @Override
+    public String toString() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms: dadas=" + givenClauses
+            + ", pasivas=" + passive + ", activas=" + active + ", retenidas=" + retained;
+    }
+}
+
+// Eventos de JDK Flight Recorder; solo se crean con Flight Recorder iniciado
+// (ver InferenceMetrics.recording). Los de unificación, uno por llamada, están
+// además desactivados por defecto y hay que habilitarlos en la grabación
+
+@Name("SistemaInferencia.Query")
+@Label("Consulta")
+@Category("Motor de inferencia")
+@StackTrace(false)
+class QueryEvent extends Event {
+    @Label("Consulta") String query;
+    @Label("Estado") String status;
+    @Label("Desde caché") boolean cached;
+    @Label("Cláusulas dadas") long givenClauses;
+    @Label("Resolventes generados") long generated;
+    @Label("Resolventes conservados") long kept;
+    @Label("Duplicados") long duplicates;
+    @Label("Subsumidas hacia adelante") long forwardSubsumed;
+    @Label("Subsumidas hacia atrás") long backwardSubsumed;
+    @Label("Unificaciones intentadas") long unificationAttempts;
+    @Label("Unificaciones exitosas") long unificationSuccesses;
+    @Label("Máximo de pasivas") long maxPassive;
+    @Label("Pasivas descartadas") long evicted;
+}
+
+@Name("SistemaInferencia.ClauseSet")
+@Label("Conjuntos de cláusulas")
+@Category("Motor de inferencia")
+@StackTrace(false)
+class ClauseSetEvent extends Event {
+    @Label("Cláusulas dadas") long givenClauses;
+    @Label("Pasivas") int passive;
+    @Label("Activas") int active;
+    @Label("Retenidas") long retained;
+}
+
+@Name("SistemaInferencia.Unification")
+@Label("Unificación")
+@Category("Motor de inferencia")
+@StackTrace(false)
+@Enabled(false)
+class UnificationEvent extends Event {
+    @Label("Predicado") String predicate;
+    @Label("Aridad") int arity;
+    @Label("Éxito") boolean success;
+    
+    static void emit(Predicate predicate, boolean success) {
+        UnificationEvent event = new UnificationEvent();
+        if (!event.shouldCommit()) return;
+        event.predicate = predicate.name;
+        event.arity = predicate.terms.size();
+        event.success = success;
+        event.commit();
+    }
+}
+
+//-----Algoritmo de Resolución-----
+
+// Índice de cláusulas por literal para encontrar compañeros de resolución
+// La clave es la firma (símbolo y aridad) del predicado junto con su polaridad
+class LiteralIndex {
+    private List<Clause>[] entries = newEntries(64);
+    
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static List<Clause>[] newEntries(int size) {
+        return (List<Clause>[]) new List[size];
+    }
+    
+    public static int key(Predicate predicate) {
+        return predicate.signature * 2 + (predicate.negated ? 1 : 0);
+    }
+    
+    public void add(Clause clause) {
+        for (Predicate pred : clause.predicates) {
+            int key = key(pred);
+            if (key >= entries.length) {
+                entries = Arrays.copyOf(entries, Math.max(entries.length * 2, key + 1));
+            }
+            List<Clause> list = entries[key];
+            if (list == null) {
+                list = entries[key] = new ArrayList<>();
+            }
+            // Una cláusula con varios literales de la misma clave se indexa una vez
+            if (list.isEmpty() || list.get(list.size() - 1) != clause) {
+                list.add(clause);
+            }
+        }
+    }
+    
+    public List<Clause> get(int key) {
+        return key < entries.length && entries[key] != null ? entries[key] : Collections.emptyList();
+    }
+}
+
+// Estrategia de selección de la cláusula dada
+enum ClauseSelection {
+    AGE,           // La más antigua primero (FIFO)
+    WEIGHT,        // Preferencia unitaria: menos literales y símbolos primero
+    WEIGHT_AGE     // Por peso, intercalando una por antigüedad cada ageRatio selecciones
+}
+
+// Cola de cláusulas pasivas ordenada según la estrategia de selección. Solo
+// guarda identificadores (y por peso una clave empaquetada); las cláusulas
+// se obtienen con el resolver al seleccionarlas
+class PassiveQueue {
+    private final ClauseSelection selection;
+    private final int ageRatio;
+    private final IntFunction<Clause> resolver;
+    private final IntList byAge = new IntList();     // Cola FIFO desde ageHead
+    private int ageHead = 0;
+    private final LongHeap byWeight = new LongHeap();
+    private final BitSet queued = new BitSet();     // Pendientes; las demás entradas de las colas se saltan
+    private int picks = 0;
+    private int size = 0;
+    
+    // Cota de derivadas pendientes (limit): al pasarla se descarta la peor
+    // según weightKey, que en byWorst se guarda complementada para que el
+    // montículo de mínimos dé la máxima
+    private int limit = Integer.MAX_VALUE;
+    private int firstDerived = Integer.MAX_VALUE;
+    private final LongHeap byWorst = new LongHeap();
+    private int derived = 0;
+    private int stale = 0;     // Entradas de byAge, byWeight o byWorst que ya no están pendientes
+    
+    public PassiveQueue(ClauseSelection selection, int ageRatio, IntFunction<Clause> resolver) {
+        this.selection = selection;
+        this.ageRatio = ageRatio;
+        this.resolver = resolver;
+    }
+    
+    // Peso de una cláusula: un símbolo por literal más uno por argumento
+    public static int weight(Clause clause) {
+        int weight = 0;
+        for (Predicate pred : clause.predicates) {
+            weight += 1 + pred.terms.size();
+        }
+        return weight;
+    }
+    
+    // Orden por peso: menos literales, luego menor peso, luego más antigua.
+    // Literales y peso se saturan en 10 y 21 bits; el identificador es positivo
+    private static long weightKey(Clause clause) {
+        long literals = Math.min(clause.predicates.size(), 0x3FF);
+        long weight = Math.min(weight(clause), 0x1FFFFF);
+        return literals << 53 | weight << 32 | clause.id;
+    }
+    
+    // Solo las cláusulas con identificador desde firstDerived cuentan para la
+    // cota y pueden descartarse; las de entrada se conservan siempre. Sin
+    // cota (Integer.MAX_VALUE) no se lleva la cuenta de derivadas
+    public void limit(int limit, int firstDerived) {
+        if (limit < 0) throw new IllegalArgumentException("Cota de pasivas negativa: " + limit);
+        this.limit = limit;
+        this.firstDerived = limit == Integer.MAX_VALUE ? Integer.MAX_VALUE : firstDerived;
+    }
+    
+    public void add(Clause clause) {
+        if (selection != ClauseSelection.WEIGHT) byAge.add(clause.id);
+        if (selection != ClauseSelection.AGE) byWeight.add(weightKey(clause));
+        if (counts(clause.id)) {
+            byWorst.add(~weightKey(clause));
+            derived++;
+        }
+        queued.set(clause.id);
+        size++;
+    }
+    
+    // Cuenta para la cota (y está en byWorst)
+    private boolean counts(int id) {
+        return id >= firstDerived;
+    }
+    
+    public boolean isOverLimit() {
+        return derived > limit;
+    }
+    
+    // Descarta la derivada pendiente menos prometedora y devuelve su
+    // identificador, o -1 si no queda ninguna (no debería pasar si
+    // isOverLimit es verdadero)
+    public int evict() {
+        while (byWorst.size() > 0) {
+            int id = (int) ~byWorst.poll();
+            if (!queued.get(id)) {
+                stale--;
+                continue;
+            }
+            dequeue(id, 1);
+            return id;
+        }
+        return -1;
+    }
+    
+    // Quita una cláusula pendiente que dejó de servir (eliminada por
+    // subsunción hacia atrás); no hace nada si ya no estaba en la cola
+    public void remove(int id) {
+        if (queued.get(id)) dequeue(id, 0);
+    }
+    
+    public Clause poll() {
+        if (size == 0) return null;
+        boolean useAge = selection == ClauseSelection.AGE
+            || (selection == ClauseSelection.WEIGHT_AGE && ++picks % (ageRatio + 1) == 0);
+        int id = useAge ? pollAge() : (int) byWeight.poll();
+        while (!queued.get(id)) {
+            stale--;
+            id = useAge ? pollAge() : (int) byWeight.poll();
+        }
+        dequeue(id, 1);
+        return resolver.apply(id);
+    }
+    
+    // Deja de estar pendiente. Sus entradas en las colas, menos las popped
+    // que ya se sacaron, quedan viejas hasta que se saltan o se purgan
+    private void dequeue(int id, int popped) {
+        queued.clear(id);
+        int entries = (selection != ClauseSelection.WEIGHT ? 1 : 0) + (selection != ClauseSelection.AGE ? 1 : 0);
+        if (counts(id)) {
+            derived--;
+            entries++;
+        }
+        size--;
+        stale += entries - popped;
+        // Con cota, las entradas viejas no pasan de la cota (o de las
+        // pendientes), así que la memoria de la cola no crece con lo descartado
+        if (stale > Math.max(size, Math.min(limit, 4096))) purge();
+    }
+    
+    // Quita de las colas las entradas que ya no están pendientes
+    private void purge() {
+        IntList pending = new IntList(Math.max(byAge.size() - ageHead, 1));
+        for (int i = ageHead; i < byAge.size(); i++) {
+            if (queued.get(byAge.get(i))) pending.add(byAge.get(i));
+        }
+        byAge.clear();
+        for (int i = 0; i < pending.size(); i++) {
+            byAge.add(pending.get(i));
+        }
+        ageHead = 0;
+        byWeight.retain(key -> queued.get((int) key));
+        byWorst.retain(key -> queued.get((int) ~key));
+        stale = 0;
+    }
+    
+    private int pollAge() {
+        int id = byAge.get(ageHead++);
+        if (ageHead == byAge.size()) {
+            byAge.clear();
+            ageHead = 0;
+        } else if (ageHead >= 4096 && ageHead * 2 >= byAge.size()) {
+            byAge.removeFirst(ageHead);
+            ageHead = 0;
+        }
+        return id;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public int size() {
+        return size;
+    }
+}
+
+// Montículo binario de mínimos sobre long, sin objetos por elemento
+class LongHeap {
+    private long[] heap = new long[16];
+    private int size;
+    
+    public void add(long value) {
+        if (size == heap.length) heap = Arrays.copyOf(heap, size * 2);
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent] <= value) break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+    
+    public long poll() {
+        long min = heap[0];
+        long last = heap[--size];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+            if (last <= heap[child]) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return min;
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    // Conserva solo los valores que cumplen keep y rehace el montículo
+    public void retain(LongPredicate keep) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            if (keep.test(heap[i])) heap[kept++] = heap[i];
+        }
+        size = kept;
+        for (int i = size / 2 - 1; i >= 0; i--) {
+            long value = heap[i];
+            int j = i;
+            while (true) {
+                int child = 2 * j + 1;
+                if (child >= size) break;
+                if (child + 1 < size && heap[child + 1] < heap[child]) child++;
+                if (value <= heap[child]) break;
+                heap[j] = heap[child];
+                j = child;
+            }
+            heap[j] = value;
+        }
+    }
+}
+
+// Cláusulas de una sesión por identificador: el DAG de la prueba y las
+// derivadas retenidas se consultan aquí
+interface ClauseStore extends Iterable<Clause> {
+    void put(Clause clause);
+    
+    Clause get(int id);     // null si no está
+    
+    void remove(int id);
+}
+
+// Almacén por defecto: los objetos Clause en un mapa
+class ObjectClauseStore implements ClauseStore {
+    private final Map<Integer, Clause> clauses = new HashMap<>();
+    
+    @Override
+    public void put(Clause clause) {
+        clauses.put(clause.id, clause);
+    }
+    
+    @Override
+    public Clause get(int id) {
+        return clauses.get(id);
+    }
+    
+    @Override
+    public void remove(int id) {
+        clauses.remove(id);
+    }
+    
+    @Override
+    public Iterator<Clause> iterator() {
+        return clauses.values().iterator();
+    }
+}
+
+// Almacén compacto (SearchOptions.compactClauses): cada cláusula es una
+// secuencia de enteros en bloques de un arreglo que crece sin copiarse:
+// número de literales, fromQuery, padres e índices de los literales
+// resueltos (0 en las de entrada), y por literal símbolo * 2 + negado,
+// aridad y un código símbolo * 2 + variable por argumento. Las cláusulas se
+// direccionan por su posición y se decodifican cada vez que se piden. Solo
+// se empaquetan las del DAG: las activas siguen como objetos en su
+// LiteralIndex y cada retenida ocupa nodos (TreeMap) del FeatureVectorIndex.
+// El tamaño del almacén queda en ResolutionStats.arenaBytes
+class ClauseArena implements ClauseStore {
+    private static final int CHUNK_SIZE = 1 << 20;     // Enteros por bloque (4 MB)
+    private static final int HEADER = 6;
+    
+    private final int firstId;
+    private int[][] chunks = new int[0][];
+    private int used;     // Enteros usados del último bloque
+    private long[] offsets = new long[1024];     // Por id - firstId: bloque << 32 | posición, más uno; 0 si no está
+    private long words;
+    
+    public ClauseArena(int firstId) {
+        this.firstId = firstId;
+    }
+    
+    @Override
+    public void put(Clause clause) {
+        int length = HEADER;
+        for (Predicate pred : clause.predicates) {
+            length += 2 + pred.terms.size();
+        }
+        if (chunks.length == 0 || used + length > chunks[chunks.length - 1].length) {
+            chunks = Arrays.copyOf(chunks, chunks.length + 1);
+            chunks[chunks.length - 1] = new int[Math.max(CHUNK_SIZE, length)];
+            used = 0;
+        }
+        int[] chunk = chunks[chunks.length - 1];
+        int position = used;
+        chunk[position++] = clause.predicates.size();
+        chunk[position++] = clause.fromQuery ? 1 : 0;
+        if (clause.parents != null) {
+            chunk[position++] = clause.parents[0];
+            chunk[position++] = clause.parents[1];
+            chunk[position++] = clause.parentLiterals[0];
+            chunk[position++] = clause.parentLiterals[1];
+        } else {
+            position += 4;
+        }
+        for (Predicate pred : clause.predicates) {
+            chunk[position++] = pred.symbol * 2 + (pred.negated ? 1 : 0);
+            chunk[position++] = pred.terms.size();
+            for (Term term : pred.terms) {
+                chunk[position++] = term.symbol * 2 + (term.isVariable ? 1 : 0);
+            }
+        }
+        
+        int index = clause.id - firstId;
+        if (index >= offsets.length) offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, index + 1));
+        offsets[index] = ((long) (chunks.length - 1) << 32 | used) + 1;
+        used = position;
+        words += length;
+    }
+    
+    @Override
+    public Clause get(int id) {
+        int index = id - firstId;
+        if (index < 0 || index >= offsets.length || offsets[index] == 0) return null;
+        long offset = offsets[index] - 1;
+        int[] chunk = chunks[(int) (offset >>> 32)];
+        int position = (int) offset;
+        int literals = chunk[position];
+        List<Predicate> predicates = new ArrayList<>(literals);
+        int p = position + HEADER;
+        for (int l = 0; l < literals; l++) {
+            int code = chunk[p++];
+            int arity = chunk[p++];
+            List<Term> terms = new ArrayList<>(arity);
+            for (int t = 0; t < arity; t++) {
+                int term = chunk[p++];
+                terms.add(SymbolTable.term(term >>> 1, (term & 1) != 0));
+            }
+            predicates.add(Predicate.of(SymbolTable.name(code >>> 1), terms, (code & 1) != 0));
+        }
+        Clause clause = new Clause(predicates, id);
+        clause.fromQuery = chunk[position + 1] != 0;
+        if (chunk[position + 2] != 0) {
+            clause.parents = new int[] {chunk[position + 2], chunk[position + 3]};
+            clause.parentLiterals = new int[] {chunk[position + 4], chunk[position + 5]};
+        }
+        return clause;
+    }
+    
+    // El espacio de la cláusula no se recupera, solo deja de encontrarse
+    @Override
+    public void remove(int id) {
+        int index = id - firstId;
+        if (index < 0 || index >= offsets.length || offsets[index] == 0) return;
+        offsets[index] = 0;
+    }
+    
+    @Override
+    public Iterator<Clause> iterator() {
+        return new Iterator<Clause>() {
+            private int index = advance(0);
+            
+            private int advance(int from) {
+                while (from < offsets.length && offsets[from] == 0) from++;
+                return from;
+            }
+            
+            @Override
+            public boolean hasNext() {
+                return index < offsets.length;
+            }
+            
+            @Override
+            public Clause next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                Clause clause = get(firstId + index);
+                index = advance(index + 1);
+                return clause;
+            }
+        };
+    }
+    
+    // Bytes ocupados por las cláusulas (sin contar el espacio libre del último bloque)
+    public long usedBytes() {
+        return words * 4 + (long) offsets.length * 8;
+    }
+}
+
+// Opciones de búsqueda de una consulta
+class SearchOptions {
+    public int threads = 1;     // Hilos para generar resolventes (1 = secuencial)
+    public boolean deterministic = true;     // Orden reproducible en modo paralelo
+    public int batchSize = 0;     // Cláusulas dadas por ronda (0 = automático)
+    public boolean useCache = true;     // Consultar y alimentar la caché de la base
+    public boolean setOfSupport = false;     // Solo las cláusulas que descienden de la consulta son dadas
+    public ClauseSelection selection = ClauseSelection.AGE;
+    public int ageRatio = 5;     // Selecciones por peso por cada una por antigüedad (WEIGHT_AGE)
+    public boolean forwardChaining = true;     // Responder sobre el modelo mínimo si todo es Horn
+    public boolean compactClauses = false;     // Guardar las derivadas empaquetadas (ClauseArena)
+    public EnumSet<Simplification> simplify = EnumSet.noneOf(Simplification.class);
+    public int maxPassive = Integer.MAX_VALUE;     // Derivadas pendientes; al pasarla se descartan las peores
+    
+    public SearchOptions threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+    
+    public SearchOptions deterministic(boolean deterministic) {
+        this.deterministic = deterministic;
+        return this;
+    }
+    
+    public SearchOptions batchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+    
+    public SearchOptions useCache(boolean useCache) {
+        this.useCache = useCache;
+        return this;
+    }
+    
+    public SearchOptions forwardChaining(boolean forwardChaining) {
+        this.forwardChaining = forwardChaining;
+        return this;
+    }
+    
+    public SearchOptions setOfSupport(boolean setOfSupport) {
+        this.setOfSupport = setOfSupport;
+        return this;
+    }
+    
+    public SearchOptions selection(ClauseSelection selection) {
+        this.selection = selection;
+        return this;
+    }
+    
+    public SearchOptions ageRatio(int ageRatio) {
+        this.ageRatio = ageRatio;
+        return this;
+    }
+    
+    public SearchOptions compactClauses(boolean compactClauses) {
+        this.compactClauses = compactClauses;
+        return this;
+    }
+    
+    public SearchOptions simplify(Simplification... steps) {
+        this.simplify = steps.length == 0 ? EnumSet.noneOf(Simplification.class) : EnumSet.copyOf(Arrays.asList(steps));
+        return this;
+    }
+    
+    public SearchOptions simplifyAll() {
+        this.simplify = EnumSet.allOf(Simplification.class);
+        return this;
+    }
+    
+    // Con la cota la búsqueda ya no es completa: si se descartó algo y no
+    // quedan pasivas el resultado es UNKNOWN, no SATURATED
+    public SearchOptions maxPassive(int maxPassive) {
+        if (maxPassive < 0) throw new IllegalArgumentException("maxPassive debe ser >= 0: " + maxPassive);
+        this.maxPassive = maxPassive;
+        return this;
+    }
+    
+    // Refutacionalmente completa: un SATURATED prueba que la consulta no se
+    // sigue. Hace falta que el motor lo sea (QuerySession.COMPLETE_INFERENCE,
+    // hoy no) y que la configuración no suponga la base consistente (sin
+    // conjunto de soporte, RELEVANCE ni PURE_LITERALS)
+    public boolean isComplete() {
+        return QuerySession.COMPLETE_INFERENCE && !setOfSupport && !simplify.contains(Simplification.RELEVANCE)
+            && !simplify.contains(Simplification.PURE_LITERALS);
+    }
+    
+    public int effectiveBatchSize() {
+        if (batchSize > 0) return batchSize;
+        return threads <= 1 ? 1 : threads * 4;
+    }
+}
+
+// Token de cancelación cooperativa: la búsqueda lo consulta en cada paso.
+// Un token hijo queda cancelado también cuando se cancela su padre
+class CancellationToken {
+    private final CancellationToken parent;
+    private volatile boolean cancelled;
+    
+    public CancellationToken() {
+        this(null);
+    }
+    
+    public CancellationToken(CancellationToken parent) {
+        this.parent = parent;
+    }
+    
+    public void cancel() {
+        cancelled = true;
+    }
+    
+    public boolean isCancelled() {
+        return cancelled || (parent != null && parent.isCancelled());
+    }
+}
+
+// Presupuesto de recursos de una consulta. Sin límites por defecto
+class ResolutionBudget {
+    public long deadlineNanos = Long.MAX_VALUE;     // Instante límite según System.nanoTime
+    public long maxGenerated = Long.MAX_VALUE;     // Resolventes generados
+    public long maxRetained = Long.MAX_VALUE;     // Cláusulas derivadas retenidas a la vez
+    public CancellationToken cancellation = new CancellationToken();
+    
+    public static ResolutionBudget unlimited() {
+        return new ResolutionBudget();
+    }
+    
+    // Plazo relativo a partir de ahora
+    public ResolutionBudget timeout(long millis) {
+        this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        return this;
+    }
+    
+    public ResolutionBudget maxGenerated(long maxGenerated) {
+        this.maxGenerated = maxGenerated;
+        return this;
+    }
+    
+    public ResolutionBudget maxRetained(long maxRetained) {
+        this.maxRetained = maxRetained;
+        return this;
+    }
+    
+    public ResolutionBudget cancellation(CancellationToken cancellation) {
+        this.cancellation = cancellation;
+        return this;
+    }
+    
+    // Mismos límites con otro token de cancelación
+    public ResolutionBudget withCancellation(CancellationToken cancellation) {
+        ResolutionBudget copy = new ResolutionBudget();
+        copy.deadlineNanos = deadlineNanos;
+        copy.maxGenerated = maxGenerated;
+        copy.maxRetained = maxRetained;
+        copy.cancellation = cancellation;
+        return copy;
+    }
+    
+    // Cancelada o fuera de plazo. No lee estadísticas, así que sirve dentro
+    // de los bucles de generación, también desde los hilos del pool
+    public boolean isInterrupted() {
+        return cancellation.isCancelled() || isPastDeadline();
+    }
+    
+    private boolean isPastDeadline() {
+        return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos >= 0;
+    }
+    
+    // Motivo por el que se agotó el presupuesto, o null si queda margen
+    public String exhausted(ResolutionStats stats) {
+        if (cancellation.isCancelled()) return "consulta cancelada";
+        if (isPastDeadline()) return "tiempo agotado";
+        if (stats.generated >= maxGenerated) return "límite de cláusulas generadas";
+        if (stats.retained > maxRetained) return "límite de cláusulas retenidas";
+        return null;
+    }
+}
+
+// Estado final de una consulta
+enum ResolutionStatus {
+    PROVED,       // Se derivó la cláusula vacía
+    SATURATED,    // No quedan cláusulas por procesar: la consulta no se sigue
+    UNKNOWN       // Se agotó el presupuesto antes de decidir
+}
+
+// Estadísticas de una búsqueda
+class ResolutionStats {
+    public static final int MAX_SAMPLES = 1024;
+    
+    public long givenClauses;
+    public long generated;
+    public long kept;
+    public long duplicates;   // Copias exactas de cláusulas existentes
+    public long forwardSubsumed;
+    public long backwardSubsumed;
+    public long retained;     // Cláusulas derivadas retenidas al terminar
+    public long unificationAttempts;
+    public long unificationSuccesses;
+    public long maxPassive;
+    public long evicted;     // Pasivas descartadas por SearchOptions.maxPassive
+    public long arenaBytes;     // Bytes del almacén compacto al terminar (0 sin compactClauses)
+    public final SimplificationStats simplification = new SimplificationStats();
+    public final List<ClauseSetSample> samples = new ArrayList<>();     // Tamaños a lo largo de la búsqueda (a lo sumo MAX_SAMPLES)
+    public long elapsedNanos;
+    
+    @Override
+    public String toString() {
+        return "dadas=" + givenClauses + ", generadas=" + generated + ", conservadas=" + kept
+            + ", duplicadas=" + duplicates
+            + ", subsumidas (adelante/atrás)=" + forwardSubsumed + "/" + backwardSubsumed
+            + ", retenidas=" + retained + ", máx. pasivas=" + maxPassive
+            + (evicted == 0 ? "" : ", descartadas por la cota=" + evicted)
+            + (arenaBytes == 0 ? "" : ", almacén compacto=" + arenaBytes / 1024 + " KB")
+            + ", unificaciones (intentos/éxitos)=" + unificationAttempts + "/" + unificationSuccesses
+            + (simplification.isEmpty() ? "" : ", simplificación: " + simplification)
+            + ", tiempo=" + TimeUnit.NANOSECONDS.toMillis(elapsedNanos) + " ms";
+    }
+}
+
+// Resultado de una consulta: estado, estadísticas y prueba si la hubo
+class ResolutionResult {
+    public final ResolutionStatus status;
+    public final ResolutionStats stats;
+    public final List<Clause> proof;
+    public final String reason;     // Motivo de UNKNOWN
+    public final boolean exact;     // SATURATED del modelo mínimo, de la caché o de una búsqueda completa
+    
+    public ResolutionResult(ResolutionStatus status, ResolutionStats stats, List<Clause> proof, String reason,
+                            boolean exact) {
+        this.status = status;
+        this.stats = stats;
+        this.proof = proof;
+        this.reason = reason;
+        this.exact = exact;
+    }
+    
+    public boolean isProved() {
+        return status == ResolutionStatus.PROVED;
+    }
+    
+    // PROVED, o SATURATED que prueba que la consulta no se sigue
+    public boolean isConclusive() {
+        return status == ResolutionStatus.PROVED || (status == ResolutionStatus.SATURATED && exact);
+    }
+    
+    @Override
+    public String toString() {
+        return status + (reason != null ? " (" + reason + ")" : "") + " [" + stats + "]";
+    }
+}
+
+// Respuesta de una consulta con variables: el valor de cada variable libre,
+// en orden de aparición, y la derivación de la cláusula de respuesta. Un
+// valor que es variable admite cualquier término
+class QueryAnswer {
+    public final Map<String, Term> bindings;
+    public final List<Clause> proof;
+    
+    public QueryAnswer(Map<String, Term> bindings, List<Clause> proof) {
+        this.bindings = bindings;
+        this.proof = proof;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Term> entry : bindings.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(entry.getKey()).append(" = ").append(entry.getValue());
+        }
+        return sb.length() > 0 ? sb.toString() : "(sin variables)";
+    }
+}
+
+// Un paso de resolución: dos padres y su resolvente
+class Inference {
+    public final Clause partner;
+    public final Clause given;
+    public final Clause resolvent;
+    
+    public Inference(Clause partner, Clause given, Clause resolvent) {
+        this.partner = partner;
+        this.given = given;
+        this.resolvent = resolvent;
+    }
+}
+
+// Caché de una base compilada: respuestas por consulta canónica y lemas
+// (cláusulas unitarias fijas derivadas solo de la base). Ambas partes están
+// acotadas y expulsan la entrada usada hace más tiempo (LRU)
+class QueryCache {
+    private final int maxAnswers;
+    private final int maxLemmas;
+    private final Map<String, Boolean> answers;
+    private final Map<Predicate, Boolean> lemmas;
+    
+    public QueryCache(int maxAnswers, int maxLemmas) {
+        this.maxAnswers = maxAnswers;
+        this.maxLemmas = maxLemmas;
+        this.answers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > maxAnswers;
+            }
+        };
+        this.lemmas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Predicate, Boolean> eldest) {
+                return size() > maxLemmas;
+            }
+        };
+    }
+    
+    // Forma canónica de la consulta: las variables se renombran por orden de aparición
+    public static String canonicalKey(List<Clause> query) {
+        Map<Term, Integer> variables = new HashMap<>();
+        StringBuilder sb = new StringBuilder();
+        for (Clause clause : query) {
+            if (sb.length() > 0) sb.append(" ∧ ");
+            appendCanonical(sb, clause, variables);
+        }
+        return sb.toString();
+    }
+    
+    private static void appendCanonical(StringBuilder sb, Clause clause, Map<Term, Integer> variables) {
+        for (int k = 0; k < clause.predicates.size(); k++) {
+            Predicate pred = clause.predicates.get(k);
+            if (k > 0) sb.append(" ∨ ");
+            if (pred.negated) sb.append("¬");
+            sb.append(pred.name).append('(');
+            for (int i = 0; i < pred.terms.size(); i++) {
+                Term term = pred.terms.get(i);
+                if (i > 0) sb.append(',');
+                if (term.isVariable) {
+                    sb.append('?').append(variables.computeIfAbsent(term, t -> variables.size()));
+                } else {
+                    sb.append(term.name);
+                }
+            }
+            sb.append(')');
+        }
+    }
+    
+    public synchronized Boolean lookup(String key) {
+        return answers.get(key);
+    }
+    
+    public synchronized void store(String key, boolean result) {
+        answers.put(key, result);
+    }
+    
+    public synchronized List<Predicate> lemmas() {
+        return new ArrayList<>(lemmas.keySet());
+    }
+    
+    public synchronized void addLemma(Predicate lemma) {
+        lemmas.put(lemma, Boolean.TRUE);
+    }
+    
+    public synchronized void invalidate() {
+        answers.clear();
+        lemmas.clear();
+    }
+    
+    // Caché para una versión con más cláusulas: las respuestas verdaderas y los
+    // lemas se conservan; las falsas pueden dejar de serlo
+    public synchronized QueryCache afterAssert() {
+        QueryCache next = new QueryCache(maxAnswers, maxLemmas);
+        for (Map.Entry<String, Boolean> entry : answers.entrySet()) {
+            if (entry.getValue()) next.answers.put(entry.getKey(), true);
+        }
+        next.lemmas.putAll(lemmas);
+        return next;
+    }
+    
+    // Una cláusula es un lema si es unitaria, sin variables y no depende de la consulta
+    public static boolean isLemma(Clause clause) {
+        if (clause.fromQuery || clause.parents == null || clause.predicates.size() != 1) return false;
+        for (Term term : clause.predicates.get(0).terms) {
+            if (term.isVariable) return false;
+        }
+        return true;
+    }
+}
+
+// Índice de literales de una base compilada: identificadores de cláusula
+// por clave (firma y polaridad) en arreglos de enteros de solo lectura
+class BaseLiteralIndex {
+    private static final int[] EMPTY = new int[0];
+    private final int[][] postings;
+    
+    BaseLiteralIndex(int[][] postings) {
+        this.postings = postings;
+    }
+    
+    public static BaseLiteralIndex build(List<Clause> clauses) {
+        List<IntList> lists = new ArrayList<>();
+        for (Clause clause : clauses) {
+            for (Predicate pred : clause.predicates) {
+                int key = LiteralIndex.key(pred);
+                while (lists.size() <= key) lists.add(null);
+                IntList list = lists.get(key);
+                if (list == null) lists.set(key, list = new IntList(4));
+                if (list.isEmpty() || list.get(list.size() - 1) != clause.id) list.add(clause.id);
+            }
+        }
+        int[][] postings = new int[lists.size()][];
+        for (int key = 0; key < postings.length; key++) {
+            postings[key] = lists.get(key) == null ? EMPTY : lists.get(key).toArray();
+        }
+        return new BaseLiteralIndex(postings);
+    }
+    
+    public int[] get(int key) {
+        return key < postings.length ? postings[key] : EMPTY;
+    }
+}
+
+// Base de conocimiento compilada: cláusulas en FNC e índices sobre ellas.
+// Cada instancia es una versión inmutable que se comparte entre hilos; cada
+// consulta abre su propia sesión. withAsserted y withRetracted devuelven una
+// versión nueva y las sesiones abiertas siguen con la suya. Las cláusulas
+// agregadas forman una capa delta con índices propios y las retiradas solo se
+// marcan; cuando la capa o las marcas crecen demasiado se compacta todo.
+// Los símbolos viven en la tabla global SymbolTable
+class KnowledgeBase {
+    private static final int MIN_DELTA_TO_COMPACT = 1024;
+    
+    private final List<Clause> clauses;     // Identificadores 1..size en orden, incluidas las retiradas
+    private final int baseSize;             // Cláusulas cubiertas por los índices compactados
+    private final BitSet retracted;         // No se modifica una vez creada la versión
+    final BaseLiteralIndex[] literalIndexes;     // Compactado y, si hay capa delta, el de la capa
+    private final FeatureVectorIndex[] subsumptionIndexes;
+    private final QueryCache cache;
+    private final long version;
+    private final int nextVariable;     // Numeración libre para las cláusulas que se agreguen
+    private final int nextSkolem;
+    private volatile HornModel hornModel;
+    private volatile boolean hornAnalyzed;
+    
+    private KnowledgeBase(List<Clause> clauses, BaseLiteralIndex[] literalIndexes,
+                          FeatureVectorIndex[] subsumptionIndexes, int baseSize, BitSet retracted,
+                          QueryCache cache, long version, int nextVariable, int nextSkolem) {
+        this.clauses = clauses;
+        this.literalIndexes = literalIndexes;
+        this.subsumptionIndexes = subsumptionIndexes;
+        this.baseSize = baseSize;
+        this.retracted = retracted;
+        this.cache = cache;
+        this.version = version;
+        this.nextVariable = nextVariable;
+        this.nextSkolem = nextSkolem;
+    }
+    
+    // Base con índices ya construidos (por ejemplo, leída de una instantánea);
+    // la lista de cláusulas puede decodificarlas de forma perezosa
+    KnowledgeBase(List<Clause> clauses, BaseLiteralIndex literalIndex, int[][] features,
+                  int nextVariable, int nextSkolem) {
+        this(clauses, new BaseLiteralIndex[] {literalIndex},
+             new FeatureVectorIndex[] {new FeatureVectorIndex(id -> clauses.get(id - 1))},
+             clauses.size(), new BitSet(), newCache(), 0, nextVariable, nextSkolem);
+        for (int i = 0; i < features.length; i++) {
+            subsumptionIndexes[0].add(i + 1, features[i]);
+        }
+    }
+    
+    // Versión sin capa delta ni marcas, con índices nuevos sobre las cláusulas
+    private static KnowledgeBase indexed(List<Clause> clauses, QueryCache cache, long version,
+                                         int nextVariable, int nextSkolem) {
+        List<Clause> list = Collections.unmodifiableList(new ArrayList<>(clauses));
+        FeatureVectorIndex subsumption = new FeatureVectorIndex(id -> list.get(id - 1));
+        for (Clause clause : list) {
+            subsumption.add(clause);
+        }
+        return new KnowledgeBase(list, new BaseLiteralIndex[] {BaseLiteralIndex.build(list)},
+            new FeatureVectorIndex[] {subsumption}, list.size(), new BitSet(), cache, version,
+            nextVariable, nextSkolem);
+    }
+    
+    private static KnowledgeBase compile(FNCConverter converter) {
+        return indexed(converter.clauses(), newCache(), 0, converter.nextVariable(), converter.nextSkolem());
+    }
+    
+    private static QueryCache newCache() {
+        return new QueryCache(1024, 4096);
+    }
+    
+    public static KnowledgeBase compile(List<String> sentences) {
+        FNCConverter converter = new FNCConverter();
+        converter.addAll(sentences);
+        return compile(converter);
+    }
+    
+    // Una sentencia por línea; admite comentarios con #
+    public static KnowledgeBase compile(Reader reader) throws IOException {
+        FNCConverter converter = new FNCConverter();
+        converter.read(reader);
+        return compile(converter);
+    }
+    
+    public static KnowledgeBase compile(Path file) throws IOException {
+        FNCConverter converter = new FNCConverter();
+        converter.read(file);
+        return compile(converter);
+    }
+    
+    // Versión con las sentencias agregadas. Solo se convierten las sentencias
+    // nuevas (con variables y constantes de Skolem que no chocan con las
+    // existentes) y se indexa la capa delta. Las respuestas verdaderas de la
+    // caché y los lemas siguen valiendo, porque agregar cláusulas no invalida
+    // ninguna consecuencia; el modelo Horn, si ya estaba calculado, se extiende
+    public KnowledgeBase withAsserted(List<String> sentences) {
+        FNCConverter converter = new FNCConverter(size() + 1, nextVariable, nextSkolem);
+        converter.addAll(sentences);
+        List<Clause> added = converter.clauses();
+        if (added.isEmpty()) return this;
+        
+        int deltaSize = size() - baseSize + added.size();
+        if (deltaSize > Math.max(MIN_DELTA_TO_COMPACT, baseSize / 4)) {
+            List<Clause> live = liveClauses();
+            live.addAll(added);
+            return compacted(live, cache.afterAssert(), converter.nextVariable(), converter.nextSkolem());
+        }
+        
+        Clause[] delta = new Clause[deltaSize];
+        for (int i = 0; i < delta.length; i++) {
+            delta[i] = i < size() - baseSize ? clauses.get(baseSize + i) : added.get(i - (size() - baseSize));
+        }
+        List<Clause> base = clauses instanceof LayeredClauseList ? ((LayeredClauseList) clauses).base : clauses;
+        List<Clause> list = new LayeredClauseList(base, delta);
+        FeatureVectorIndex deltaSubsumption = new FeatureVectorIndex(id -> list.get(id - 1));
+        for (Clause clause : delta) {
+            deltaSubsumption.add(clause);
+        }
+        KnowledgeBase next = new KnowledgeBase(list,
+            new BaseLiteralIndex[] {literalIndexes[0], BaseLiteralIndex.build(Arrays.asList(delta))},
+            new FeatureVectorIndex[] {subsumptionIndexes[0], deltaSubsumption}, baseSize, retracted,
+            cache.afterAssert(), version + 1, converter.nextVariable(), converter.nextSkolem());
+        if (hornAnalyzed) {
+            HornModel model = hornModel;
+            next.hornModel = model == null ? null : model.extend(added);
+            next.hornAnalyzed = true;
+        }
+        return next;
+    }
+    
+    // Versión sin las cláusulas de las sentencias dadas: se retiran las que
+    // coinciden con ellas salvo renombrado de variables y orden de los
+    // literales (se subsumen mutuamente y tienen tantos literales como ellas).
+    // Las constantes de Skolem de una conversión nueva no tienen relación con
+    // las de la base, así que las sentencias existenciales se rechazan. La
+    // caché se vacía y el modelo Horn se recalcula en la siguiente consulta
+    // que lo pida; liveSize dice cuántas cláusulas quedan
+    public KnowledgeBase withRetracted(List<String> sentences) {
+        FNCConverter converter = new FNCConverter(1, 1, nextSkolem);
+        converter.addAll(sentences);
+        if (converter.nextSkolem() != nextSkolem) {
+            throw new IllegalArgumentException("No se pueden retirar sentencias con cuantificadores existenciales");
+        }
+        BitSet marks = (BitSet) retracted.clone();
+        BindingTrail trail = new BindingTrail();
+        for (Clause target : converter.clauses()) {
+            if (target.predicates.isEmpty()) continue;
+            int literalKey = LiteralIndex.key(target.predicates.get(0));
+            for (BaseLiteralIndex index : literalIndexes) {
+                for (int id : index.get(literalKey)) {
+                    if (!marks.get(id) && isVariant(target, clause(id), trail)) marks.set(id);
+                }
+            }
+        }
+        if (marks.equals(retracted)) return this;
+        
+        if (marks.cardinality() * 2 > size()) {
+            List<Clause> live = new ArrayList<>();
+            for (int id = 1; id <= size(); id++) {
+                if (!marks.get(id)) live.add(clause(id));
+            }
+            return compacted(live, newCache(), nextVariable, nextSkolem);
+        }
+        return new KnowledgeBase(clauses, literalIndexes, subsumptionIndexes, baseSize, marks,
+            newCache(), version + 1, nextVariable, nextSkolem);
+    }
+    
+    private static boolean isVariant(Clause a, Clause b, BindingTrail trail) {
+        if (a.predicates.size() != b.predicates.size()) return false;
+        int mark = trail.mark();
+        boolean forward = Subsumption.subsumes(a, b, trail);
+        trail.undo(mark);
+        if (!forward) return false;
+        boolean backward = Subsumption.subsumes(b, a, trail);
+        trail.undo(mark);
+        return backward;
+    }
+    
+    // Renumera las cláusulas vivas como 1..n sobre copias (las versiones
+    // anteriores conservan las suyas) y reconstruye todos los índices
+    private KnowledgeBase compacted(List<Clause> live, QueryCache nextCache, int nextVariable, int nextSkolem) {
+        List<Clause> renumbered = new ArrayList<>(live.size());
+        for (Clause clause : live) {
+            Clause copy = clause.copy();
+            copy.id = renumbered.size() + 1;
+            renumbered.add(copy);
+        }
+        return indexed(renumbered, nextCache, version + 1, nextVariable, nextSkolem);
+    }
+    
+    // Guarda la base compilada en formato binario (ver KnowledgeBaseSnapshot)
+    public void save(Path file) throws IOException {
+        KnowledgeBaseSnapshot.write(this, file);
+    }
+    
+    public static KnowledgeBase load(Path file) throws IOException {
+        return KnowledgeBaseSnapshot.read(file);
+    }
+    
+    // Todas las cláusulas por identificador, incluidas las retiradas
+    public List<Clause> clauses() {
+        return clauses;
+    }
+    
+    // Cláusulas no retiradas, en orden de identificador
+    public List<Clause> liveClauses() {
+        List<Clause> live = new ArrayList<>(size() - retracted.cardinality());
+        for (Clause clause : clauses) {
+            if (!retracted.get(clause.id)) live.add(clause);
+        }
+        return live;
+    }
+    
+    public int size() {
+        return clauses.size();
+    }
+    
+    // Cláusulas no retiradas
+    public int liveSize() {
+        return size() - retracted.cardinality();
+    }
+    
+    // Cláusula de entrada por identificador (1..size)
+    public Clause clause(int id) {
+        return clauses.get(id - 1);
+    }
+    
+    public boolean isRetracted(int id) {
+        return retracted.get(id);
+    }
+    
+    // Identificadores retirados; no se debe modificar
+    BitSet retracted() {
+        return retracted;
+    }
+    
+    // Número de versión: 0 al compilar o cargar, y uno más por cada cambio
+    public long version() {
+        return version;
+    }
+    
+    int nextSkolem() {
+        return nextSkolem;
+    }
+    
+    // Primera cláusula de la base que subsume a la dada, en cualquiera de los índices
+    Clause findSubsumer(Clause clause, BindingTrail trail, BitSet excluded) {
+        for (FeatureVectorIndex index : subsumptionIndexes) {
+            Clause subsumer = index.findSubsumer(clause, trail, excluded);
+            if (subsumer != null) return subsumer;
+        }
+        return null;
+    }
+    
+    List<Clause> findSubsumed(Clause clause, BindingTrail trail, BitSet excluded) {
+        if (subsumptionIndexes.length == 1) return subsumptionIndexes[0].findSubsumed(clause, trail, excluded);
+        List<Clause> subsumed = new ArrayList<>();
+        for (FeatureVectorIndex index : subsumptionIndexes) {
+            subsumed.addAll(index.findSubsumed(clause, trail, excluded));
+        }
+        return subsumed;
+    }
+    
+    // Modelo mínimo si la base es Horn de rango restringido, o null. Se calcula
+    // en la primera consulta que lo pide y lo comparten todas las sesiones.
+    // stop es el presupuesto de esa consulta: si corta el cálculo el modelo
+    // vuelve incompleto, no se publica y la próxima consulta empieza de nuevo.
+    // El cálculo va fuera del candado para que cada consulta pueda cortar el
+    // suyo; dos consultas simultáneas pueden calcularlo a la vez y se publica
+    // el primero que termine
+    HornModel hornModel(BooleanSupplier stop) {
+        if (hornAnalyzed) return hornModel;
+        HornModel model = HornModel.build(liveClauses(), stop);
+        if (model != null && !model.complete) return model;
+        synchronized (this) {
+            if (!hornAnalyzed) {
+                hornModel = model;
+                hornAnalyzed = true;
+            }
+            return hornModel;
+        }
+    }
+    
+    // Caché de respuestas y lemas de esta versión
+    public QueryCache cache() {
+        return cache;
+    }
+    
+    public QuerySession openSession() {
+        return new QuerySession(this, ProofLogger.disabled());
+    }
+    
+    public QuerySession openSession(ProofLogger logger) {
+        return new QuerySession(this, logger);
+    }
+    
+    // Cláusulas compactadas seguidas de la capa delta
+    private static class LayeredClauseList extends AbstractList<Clause> {
+        private final List<Clause> base;
+        private final Clause[] delta;
+        
+        LayeredClauseList(List<Clause> base, Clause[] delta) {
+            this.base = base;
+            this.delta = delta;
+        }
+        
+        @Override
+        public Clause get(int index) {
+            return index < base.size() ? base.get(index) : delta[index - base.size()];
+        }
+        
+        @Override
+        public int size() {
+            return base.size() + delta.length;
+        }
+    }
+}
+
+// Base de conocimiento que recibe actualizaciones: publica una versión nueva
+// por cambio. Las escrituras se serializan; las consultas abren la sesión
+// sobre la versión vigente y no ven los cambios posteriores
+class LiveKnowledgeBase {
+    private volatile KnowledgeBase current;
+    
+    public LiveKnowledgeBase(KnowledgeBase initial) {
+        this.current = initial;
+    }
+    
+    public KnowledgeBase current() {
+        return current;
+    }
+    
+    public synchronized KnowledgeBase assertSentences(List<String> sentences) {
+        current = current.withAsserted(sentences);
+        return current;
+    }
+    
+    public synchronized KnowledgeBase retractSentences(List<String> sentences) {
+        current = current.withRetracted(sentences);
+        return current;
+    }
+    
+    public QuerySession openSession() {
+        return current.openSession();
+    }
+    
+    public QuerySession openSession(ProofLogger logger) {
+        return current.openSession(logger);
+    }
+}
+
+// Sesión de una consulta sobre una base compilada. Todo el estado de la
+// búsqueda (cláusulas derivadas, índices propios, eliminadas) es local, así
+// que varias sesiones pueden ejecutarse a la vez sobre la misma base
+class QuerySession {
+    // La saturación no es refutacionalmente completa: resolveClauses da solo
+    // el primer resolvente de cada par de cláusulas y no hay factorización,
+    // así que un SATURATED de la búsqueda puede ocultar una refutación
+    static final boolean COMPLETE_INFERENCE = false;
+    
+    private final KnowledgeBase kb;
+    private final ProofLogger logger;
+    private int nextClauseId;
+    private boolean used;     // El estado de la búsqueda es de una sola consulta
+    private List<Clause> proof = Collections.emptyList();
+    private final BindingTrail trail = new BindingTrail();
+    // Trail de cada hilo del pool. Los de hilos ya terminados (el pool
+    // retira los inactivos) dejan sus contadores en retired* y salen del mapa
+    private final Map<Thread, BindingTrail> trails = new HashMap<>();
+    private long retiredUnifications;
+    private long retiredUnified;
+    private final ThreadLocal<BindingTrail> workerTrails = ThreadLocal.withInitial(() -> {
+        BindingTrail workerTrail = new BindingTrail();
+        synchronized (trails) {
+            retireWorkerTrails();
+            trails.put(Thread.currentThread(), workerTrail);
+        }
+        return workerTrail;
+    });
+    
+    // Estado de la búsqueda; las cláusulas de la base se activan marcando su bit
+    private ClauseStore derivation = new ObjectClauseStore();     // DAG de la prueba por identificador
+    private final LiteralIndex active = new LiteralIndex();
+    private final FeatureVectorIndex retained = new FeatureVectorIndex(id -> derivation.get(id));
+    private final BitSet activeBase = new BitSet();
+    private final BitSet removed = new BitSet();     // Retiradas de la base o eliminadas por subsunción hacia atrás
+    private final ResolutionStats stats = new ResolutionStats();
+    private volatile ResolutionBudget budget = ResolutionBudget.unlimited();
+    private String stopReason;
+    private int activeCount;     // Cláusulas activadas, incluidas las eliminadas después
+    private long searchStart;
+    private long nextSample;
+    private long nextStoredSample;
+    private long storedSampleInterval = SAMPLE_INTERVAL_NANOS;     // Se duplica cada vez que se diezman las muestras
+    
+    // Punto de la búsqueda, para poder reanudarla tras cada respuesta
+    private PassiveQueue passive;
+    private List<Clause> batch = Collections.emptyList();
+    private List<Inference> inferences = Collections.emptyList();
+    private int nextInference;
+    private int step = 1;
+    private int answerSymbol = -1;     // Símbolo del literal de respuesta, o -1
+    private final Set<Predicate> answers = new HashSet<>();
+    private Clause lastAnswer;
+    
+    // Intervalo entre muestras del tamaño de los conjuntos de cláusulas
+    private static final long SAMPLE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    
+    QuerySession(KnowledgeBase kb, ProofLogger logger) {
+        this.kb = kb;
+        this.logger = logger;
+        this.nextClauseId = kb.size() + 1;
+        this.removed.or(kb.retracted());
+    }
+    
+    public boolean resolve(String query) {
+        return resolve(query, new SearchOptions());
+    }
+    
+    public boolean resolve(String query, SearchOptions options) {
+        return resolve(query, options, ResolutionBudget.unlimited()).isProved();
+    }
+    
+    // Cada sesión responde una sola consulta
+    public ResolutionResult resolve(String query, SearchOptions options, ResolutionBudget budget) {
+        begin();
+        long start = System.nanoTime();
+        QueryEvent event = InferenceMetrics.recording() ? new QueryEvent() : null;
+        if (event != null) event.begin();
+        logger.println(LogLevel.SUMMARY, "=== ALGORITMO DE RESOLUCIÓN ===");
+        logger.println(LogLevel.SUMMARY, "Consulta: " + query);
+        logger.println(LogLevel.SUMMARY);
+        
+        // Negar la consulta y agregarla a las cláusulas de la sesión
+        if (options.compactClauses) derivation = new ClauseArena(kb.size() + 1);
+        List<Clause> negatedQuery = FNCConverter.negateQuery(query, nextClauseId, kb.nextSkolem());
+        nextClauseId += negatedQuery.size();
+        String cacheKey = QueryCache.canonicalKey(negatedQuery);
+        if (options.useCache) {
+            Boolean cached = kb.cache().lookup(cacheKey);
+            if (cached != null) {
+                logger.println(LogLevel.SUMMARY, "Respuesta tomada de la caché: " + (cached ? "verdadera." : "falsa."));
+                stats.elapsedNanos = System.nanoTime() - start;
+                ResolutionStatus status = cached ? ResolutionStatus.PROVED : ResolutionStatus.SATURATED;
+                finish(event, query, status, true);
+                return new ResolutionResult(status, stats, proof, null, true);
+            }
+        }
+        for (Clause clause : negatedQuery) {
+            clause.fromQuery = true;
+            if (logger.isEnabled(LogLevel.PROOF)) {
+                logger.println(LogLevel.PROOF, "Agregando negación de consulta: C" + clause.id + ": " + clause);
+            }
+        }
+        logger.println(LogLevel.PROOF);
+        
+        ForkJoinPool pool = null;
+        try {
+            long searchPhase = InferenceMetrics.startPhase();
+            ResolutionStatus status = options.forwardChaining ? forwardChain(negatedQuery, budget) : null;
+            boolean fromModel = status != null;
+            if (status == null) {
+                List<Clause> lemmas = options.useCache ? seedLemmas() : Collections.emptyList();
+                pool = options.threads > 1 ? new ForkJoinPool(options.threads) : null;
+                status = saturate(negatedQuery, lemmas, options, budget, pool);
+            }
+            InferenceMetrics.endPhase(Phase.SEARCH, searchPhase);
+            stats.elapsedNanos = System.nanoTime() - start;
+            finish(event, query, status, false);
+            switch (status) {
+                case PROVED:
+                    logger.proof(proof);
+                    logger.println(LogLevel.SUMMARY, "¡Se encontró la cláusula vacía! La consulta es verdadera.");
+                    break;
+                case SATURATED:
+                    logger.println(LogLevel.SUMMARY, "No se pueden generar más cláusulas. La consulta es falsa.");
+                    break;
+                default:
+                    logger.println(LogLevel.SUMMARY, "Se detuvo la búsqueda (" + stopReason + "). No se pudo decidir la consulta.");
+            }
+            logger.println(LogLevel.SUMMARY, "Estadísticas: " + stats);
+            // Un SATURATED es exacto si sale del modelo mínimo de una base Horn
+            // o de una búsqueda completa (ver isComplete). Solo esos se guardan:
+            // la entrada de la caché la comparten todas las configuraciones
+            ResolutionResult result = new ResolutionResult(status, stats, proof, stopReason,
+                status == ResolutionStatus.SATURATED && (fromModel || options.isComplete()));
+            if (options.useCache) {
+                if (result.isConclusive()) kb.cache().store(cacheKey, status == ResolutionStatus.PROVED);
+                for (Clause clause : derivation) {
+                    if (QueryCache.isLemma(clause)) kb.cache().addLemma(clause.predicates.get(0));
+                }
+            }
+            return result;
+        } finally {
+            if (pool != null) pool.shutdown();
+        }
+    }
+    
+    // Las cláusulas activas, retenidas y eliminadas de una consulta no valen
+    // para otra: una segunda consulta necesita otra sesión
+    private void begin() {
+        if (used) throw new IllegalStateException("La sesión ya respondió una consulta; abrir otra con openSession");
+        used = true;
+    }
+    
+    // Valores de las variables libres de la consulta que la hacen verdadera,
+    // por extracción de respuestas: cada cláusula de la negación lleva el
+    // literal de respuesta y cada resolvente formado solo por él es un enlace.
+    // La búsqueda avanza solo cuando se pide la siguiente respuesta, así que
+    // dejar de pedirlas (o limit sobre stream()) la detiene; el resultado, las
+    // métricas y el evento de JFR se cierran con close del iterador o del
+    // Stream (try-with-resources), o al agotarse las respuestas.
+    // Una base inconsistente deriva □ y termina con PROVED. No usa el
+    // encadenamiento hacia adelante ni las respuestas de la caché
+    public AnswerIterator answers(String query, SearchOptions options, ResolutionBudget budget) {
+        begin();
+        long start = System.nanoTime();
+        QueryEvent event = InferenceMetrics.recording() ? new QueryEvent() : null;
+        if (event != null) event.begin();
+        logger.println(LogLevel.SUMMARY, "=== EXTRACCIÓN DE RESPUESTAS ===");
+        logger.println(LogLevel.SUMMARY, "Consulta: " + query);
+        logger.println(LogLevel.SUMMARY);
+        
+        if (options.compactClauses) derivation = new ClauseArena(kb.size() + 1);
+        List<Clause> negatedQuery = FNCConverter.negateQuery(query, nextClauseId, kb.nextSkolem(), true);
+        nextClauseId += negatedQuery.size();
+        List<Predicate> first = negatedQuery.get(0).predicates;
+        Predicate answerLiteral = first.get(first.size() - 1);
+        answerSymbol = answerLiteral.symbol;
+        for (Clause clause : negatedQuery) {
+            clause.fromQuery = true;
+            if (logger.isEnabled(LogLevel.PROOF)) {
+                logger.println(LogLevel.PROOF, "Agregando negación de consulta: C" + clause.id + ": " + clause);
+            }
+        }
+        logger.println(LogLevel.PROOF);
+        
+        List<Clause> lemmas = options.useCache ? seedLemmas() : Collections.emptyList();
+        startSearch(negatedQuery, lemmas, options, budget);
+        return new AnswerIterator(query, answerLiteral, options, event, start);
+    }
+    
+    // Recorrido perezoso de las respuestas: hasNext reanuda la búsqueda hasta
+    // la siguiente respuesta o hasta que termina. El pool de hilos se crea en
+    // la primera búsqueda y dura todo el recorrido; se libera al terminar las
+    // respuestas o con close
+    class AnswerIterator implements Iterator<QueryAnswer>, AutoCloseable {
+        private final String query;
+        private final Predicate answerLiteral;
+        private final SearchOptions options;
+        private ForkJoinPool pool;
+        private final QueryEvent event;
+        private final long start;
+        private QueryAnswer pending;
+        private ResolutionStatus status;     // null mientras la búsqueda sigue
+        private int found;
+        
+        AnswerIterator(String query, Predicate answerLiteral, SearchOptions options, QueryEvent event, long start) {
+            this.query = query;
+            this.answerLiteral = answerLiteral;
+            this.options = options;
+            this.event = event;
+            this.start = start;
+        }
+        
+        @Override
+        public boolean hasNext() {
+            if (pending != null) return true;
+            if (status != null) return false;
+            long searchPhase = InferenceMetrics.startPhase();
+            if (pool == null && options.threads > 1) pool = new ForkJoinPool(options.threads);
+            ResolutionStatus result;
+            try {
+                result = search(options, pool);
+            } catch (RuntimeException e) {
+                if (pool != null) pool.shutdown();
+                throw e;
+            }
+            InferenceMetrics.endPhase(Phase.SEARCH, searchPhase);
+            if (result != null) {
+                end(result);
+                return false;
+            }
+            Map<String, Term> bindings = new LinkedHashMap<>();
+            List<Term> values = lastAnswer.predicates.get(0).terms;
+            for (int i = 0; i < values.size(); i++) {
+                bindings.put(answerLiteral.terms.get(i).name, values.get(i));
+            }
+            pending = new QueryAnswer(bindings, extractProof(lastAnswer));
+            found++;
+            logger.println(LogLevel.SUMMARY, "Respuesta " + found + ": " + pending);
+            return true;
+        }
+        
+        @Override
+        public QueryAnswer next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            QueryAnswer answer = pending;
+            pending = null;
+            return answer;
+        }
+        
+        // Resultado de la búsqueda una vez terminada o cerrada, o null
+        public ResolutionResult result() {
+            return status == null ? null : new ResolutionResult(status, stats, proof, stopReason,
+                status == ResolutionStatus.SATURATED && options.isComplete());
+        }
+        
+        // Detiene la búsqueda si no había terminado; queda como UNKNOWN
+        @Override
+        public void close() {
+            if (status != null) return;
+            stopReason = "no se pidieron más respuestas";
+            end(ResolutionStatus.UNKNOWN);
+        }
+        
+        // Las respuestas como Stream secuencial; cerrarlo cierra el recorrido.
+        // Un Stream no se cierra solo al terminar una operación terminal: para
+        // tener result() y el evento de la consulta, usarlo con try-with-resources
+        public Stream<QueryAnswer> stream() {
+            Spliterator<QueryAnswer> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL);
+            return StreamSupport.stream(spliterator, false).onClose(this::close);
+        }
+        
+        private void end(ResolutionStatus result) {
+            status = result;
+            if (pool != null) pool.shutdown();
+            sample(passive, true);
+            stats.elapsedNanos = System.nanoTime() - start;
+            finish(event, query, status, false);
+            switch (status) {
+                case PROVED:
+                    logger.proof(proof);
+                    logger.println(LogLevel.SUMMARY, "¡Se encontró la cláusula vacía! La base es inconsistente.");
+                    break;
+                case SATURATED:
+                    logger.println(LogLevel.SUMMARY, "No se pueden generar más cláusulas. Respuestas: " + found + ".");
+                    break;
+                default:
+                    logger.println(LogLevel.SUMMARY, "Se detuvo la búsqueda (" + stopReason + "). Respuestas: " + found + ".");
+            }
+            logger.println(LogLevel.SUMMARY, "Estadísticas: " + stats);
+        }
+    }
+    
+    // Completa las estadísticas con los contadores de unificación de todos los
+    // hilos, las suma a las métricas globales y emite el evento de la consulta
+    // (event es null si no había grabación al empezar)
+    private void finish(QueryEvent event, String query, ResolutionStatus status, boolean cached) {
+        stats.unificationAttempts += trail.unifications;
+        stats.unificationSuccesses += trail.unified;
+        synchronized (trails) {
+            retireWorkerTrails();
+            stats.unificationAttempts += retiredUnifications;
+            stats.unificationSuccesses += retiredUnified;
+            for (BindingTrail t : trails.values()) {
+                stats.unificationAttempts += t.unifications;
+                stats.unificationSuccesses += t.unified;
+            }
+        }
+        if (derivation instanceof ClauseArena) stats.arenaBytes = ((ClauseArena) derivation).usedBytes();
+        InferenceMetrics.record(stats);
+        if (event != null && event.shouldCommit()) {
+            event.query = query;
+            event.status = status.name();
+            event.cached = cached;
+            event.givenClauses = stats.givenClauses;
+            event.generated = stats.generated;
+            event.kept = stats.kept;
+            event.duplicates = stats.duplicates;
+            event.forwardSubsumed = stats.forwardSubsumed;
+            event.backwardSubsumed = stats.backwardSubsumed;
+            event.unificationAttempts = stats.unificationAttempts;
+            event.unificationSuccesses = stats.unificationSuccesses;
+            event.maxPassive = stats.maxPassive;
+            event.evicted = stats.evicted;
+            event.commit();
+        }
+    }
+    
+    // Pasa a retired* los contadores de los hilos terminados (isAlive falso
+    // asegura que sus escrituras son visibles) y suelta sus trails
+    private void retireWorkerTrails() {
+        Iterator<Map.Entry<Thread, BindingTrail>> it = trails.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Thread, BindingTrail> entry = it.next();
+            if (entry.getKey().isAlive()) continue;
+            retiredUnifications += entry.getValue().unifications;
+            retiredUnified += entry.getValue().unified;
+            it.remove();
+        }
+    }
+    
+    // Registra el tamaño de los conjuntos de cláusulas como mucho una vez por
+    // intervalo, y siempre si force es verdadero. Los eventos de JFR salen en
+    // cada intervalo; la lista de muestras se queda con la mitad cuando llega
+    // a MAX_SAMPLES y desde ahí guarda a la mitad de ritmo, así que su tamaño
+    // no depende de cuánto dure la búsqueda
+    private void sample(PassiveQueue passive, boolean force) {
+        stats.maxPassive = Math.max(stats.maxPassive, passive.size());
+        long now = System.nanoTime();
+        if (!force && now < nextSample) return;
+        nextSample = now + SAMPLE_INTERVAL_NANOS;
+        if (force || now >= nextStoredSample) {
+            if (stats.samples.size() >= ResolutionStats.MAX_SAMPLES) {
+                List<ClauseSetSample> samples = stats.samples;
+                int kept = 0;
+                for (int i = 1; i < samples.size(); i += 2) {
+                    samples.set(kept++, samples.get(i));
+                }
+                samples.subList(kept, samples.size()).clear();
+                storedSampleInterval *= 2;
+            }
+            stats.samples.add(new ClauseSetSample(now - searchStart, stats.givenClauses, passive.size(), activeCount, stats.retained));
+            nextStoredSample = now + storedSampleInterval;
+        }
+        if (!InferenceMetrics.recording()) return;
+        ClauseSetEvent event = new ClauseSetEvent();
+        if (event.shouldCommit()) {
+            event.givenClauses = stats.givenClauses;
+            event.passive = passive.size();
+            event.active = activeCount;
+            event.retained = stats.retained;
+            event.commit();
+        }
+    }
+    
+    // Responde sobre el modelo mínimo de la base si la base y la negación de la
+    // consulta son Horn de rango restringido; si no, devuelve null y se usa
+    // resolución. Los hechos de la negación se agregan en una capa propia de la
+    // sesión y se propagan con el mismo punto fijo; la consulta se sigue si
+    // alguna restricción (de la negación o de la base) se cumple en el modelo
+    private ResolutionStatus forwardChain(List<Clause> negatedQuery, ResolutionBudget budget) {
+        HornModel model = kb.hornModel(() -> (stopReason = budget.exhausted(stats)) != null);
+        if (model == null) return null;
+        if (!model.complete) return ResolutionStatus.UNKNOWN;
+        List<HornRule> goals = new ArrayList<>();
+        List<HornRule> queryFacts = new ArrayList<>();
+        for (Clause clause : negatedQuery) {
+            HornRule rule = HornRule.of(clause);
+            if (rule == null || !(rule.isConstraint() || rule.isFact())) return null;
+            (rule.isConstraint() ? goals : queryFacts).add(rule);
+        }
+        logger.println(LogLevel.SUMMARY, "La base y la consulta son Horn: se responde por encadenamiento hacia adelante.");
+        for (Clause clause : negatedQuery) {
+            derivation.put(clause);
+        }
+        if (model.violated != null) {
+            proof = hornProof(model.violated, model.violation, model.facts);
+            return ResolutionStatus.PROVED;
+        }
+        
+        FactStore facts = model.facts;
+        if (!queryFacts.isEmpty()) {
+            facts = new FactStore(model.facts);
+            for (HornRule fact : queryFacts) {
+                facts.add(fact.literal(fact.head), new FactSource(fact, FactSource.NO_PREMISES));
+            }
+            int initial = facts.size();
+            if (!facts.saturate(model.rules, trail, () -> (stopReason = budget.exhausted(stats)) != null)) {
+                return ResolutionStatus.UNKNOWN;
+            }
+            stats.generated = facts.size() - initial;
+            stats.kept = stats.generated;
+            // Las restricciones de la base solo pueden cumplirse ahora con algún hecho nuevo
+            for (HornRule constraint : model.constraints) {
+                Predicate[] match = facts.findNewMatch(constraint, trail);
+                if (match != null) {
+                    proof = hornProof(constraint, match, facts);
+                    return ResolutionStatus.PROVED;
+                }
+            }
+        }
+        for (HornRule goal : goals) {
+            Predicate[] match = facts.findMatch(goal, trail);
+            if (match != null) {
+                proof = hornProof(goal, match, facts);
+                return ResolutionStatus.PROVED;
+            }
+        }
+        return ResolutionStatus.SATURATED;
+    }
+    
+    // Reconstruye la refutación como pasos de resolución binaria: cada hecho
+    // derivado sale de resolver su regla con sus premisas, una por literal del
+    // cuerpo, y la restricción cumplida se resuelve con las suyas hasta □
+    private List<Clause> hornProof(HornRule goal, Predicate[] premises, FactStore facts) {
+        Map<Predicate, Clause> proved = new HashMap<>();
+        Deque<Predicate> pending = new ArrayDeque<>(Arrays.asList(premises));
+        while (!pending.isEmpty()) {
+            Predicate fact = pending.peek();
+            if (proved.containsKey(fact)) {
+                pending.pop();
+                continue;
+            }
+            FactSource source = facts.source(fact);
+            boolean ready = true;
+            for (Predicate premise : source.premises) {
+                if (!proved.containsKey(premise)) {
+                    pending.push(premise);
+                    ready = false;
+                }
+            }
+            if (ready) {
+                pending.pop();
+                proved.put(fact, resolveBody(source.rule, source.premises, proved));
+            }
+        }
+        return extractProof(resolveBody(goal, premises, proved));
+    }
+    
+    // Resuelve uno a uno los literales del cuerpo de la regla con las cláusulas
+    // unitarias de sus premisas; queda la cabeza instanciada (o □ si no tiene)
+    private Clause resolveBody(HornRule rule, Predicate[] premises, Map<Predicate, Clause> proved) {
+        Clause current = rule.clause;
+        IntList origin = new IntList(current.predicates.size());     // Literal original de cada posición
+        for (int i = 0; i < current.predicates.size(); i++) {
+            origin.add(i);
+        }
+        for (int k = 0; k < rule.body.length; k++) {
+            int index = 0;
+            while (origin.get(index) != rule.body[k]) index++;
+            Clause unit = proved.get(premises[k]);
+            
+            int mark = trail.mark();
+            Unifier.unify(current.predicates.get(index), unit.predicates.get(0), trail);
+            List<Predicate> literals = new ArrayList<>(current.predicates.size() - 1);
+            IntList remaining = new IntList(current.predicates.size());
+            for (int i = 0; i < current.predicates.size(); i++) {
+                if (i == index) continue;
+                literals.add(Unifier.applyBindings(current.predicates.get(i), trail));
+                remaining.add(origin.get(i));
+            }
+            trail.undo(mark);
+            
+            Clause resolvent = new Clause(literals, nextClauseId++);
+            resolvent.parents = new int[] {current.id, unit.id};
+            resolvent.parentLiterals = new int[] {index, 0};
+            resolvent.fromQuery = current.fromQuery || unit.fromQuery;
+            derivation.put(resolvent);
+            current = resolvent;
+            origin = remaining;
+        }
+        return current;
+    }
+    
+    // Lemas de consultas anteriores que la base todavía no subsume
+    private List<Clause> seedLemmas() {
+        List<Clause> lemmas = new ArrayList<>();
+        for (Predicate lemma : kb.cache().lemmas()) {
+            Clause clause = new Clause(List.of(lemma), nextClauseId++);
+            if (kb.findSubsumer(clause, trail, removed) != null) continue;
+            lemmas.add(clause);
+            if (logger.isEnabled(LogLevel.PROOF)) {
+                logger.println(LogLevel.PROOF, "Agregando lema: C" + clause.id + ": " + clause);
+            }
+        }
+        return lemmas;
+    }
+    
+    // Cláusulas de la refutación encontrada (vacía si la consulta fue falsa)
+    public List<Clause> getProof() {
+        return proof;
+    }
+    
+    // Bucle de cláusula dada: cada cláusula pasiva se resuelve una sola vez
+    // contra el conjunto activo, así ningún par se vuelve a probar. En modo
+    // paralelo se toma un lote de cláusulas dadas por ronda y sus resolventes
+    // se generan en el pool; la subsunción y los identificadores se aplican
+    // después, en un solo hilo
+    private ResolutionStatus saturate(List<Clause> negatedQuery, List<Clause> lemmas, SearchOptions options,
+                                      ResolutionBudget budget, ForkJoinPool pool) {
+        startSearch(negatedQuery, lemmas, options, budget);
+        ResolutionStatus status = search(options, pool);
+        sample(passive, true);
+        return status;
+    }
+    
+    // Conjuntos iniciales de la búsqueda: todo pasivo, o con conjunto de
+    // soporte solo la negación de la consulta
+    private void startSearch(List<Clause> negatedQuery, List<Clause> lemmas, SearchOptions options,
+                             ResolutionBudget budget) {
+        this.budget = budget;
+        this.searchStart = System.nanoTime();
+        this.passive = new PassiveQueue(options.selection, options.ageRatio, this::clauseById);
+        lemmas = new ArrayList<>(lemmas);
+        negatedQuery = new ArrayList<>(negatedQuery);
+        BitSet candidates = simplifyInput(negatedQuery, lemmas, options.simplify);
+        List<Clause> sessionInput = new ArrayList<>(lemmas);
+        sessionInput.addAll(negatedQuery);
+        for (Clause clause : sessionInput) {
+            retained.add(clause);
+            derivation.put(clause);
+        }
+        
+        if (options.setOfSupport) {
+            // Conjunto de soporte: la base y los lemas empiezan activos y solo
+            // la negación de la consulta (y lo que derive de ella) es pasiva,
+            // así cada inferencia tiene al menos un padre del conjunto
+            activeBase.set(1, kb.size() + 1);
+            activeCount = kb.size() - kb.retracted().cardinality() + lemmas.size();
+            for (Clause lemma : lemmas) {
+                active.add(lemma);
+            }
+            for (Clause clause : negatedQuery) {
+                passive.add(clause);
+            }
+        } else if (candidates != null) {
+            for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+                if (!removed.get(id)) passive.add(kb.clause(id));
+            }
+            for (Clause clause : sessionInput) {
+                passive.add(clause);
+            }
+        } else {
+            for (Clause clause : kb.clauses()) {
+                if (!removed.get(clause.id)) passive.add(clause);
+            }
+            for (Clause clause : sessionInput) {
+                passive.add(clause);
+            }
+        }
+        passive.limit(options.maxPassive, nextClauseId);
+    }
+    
+    // Simplificación de la entrada. Las cláusulas de la sesión que sobran se
+    // quitan de las listas y las de la base se marcan en removed. Con
+    // RELEVANCE solo se recorre la parte de la base alcanzable desde la
+    // negación de la consulta, enlazando cada literal con las cláusulas que
+    // tienen su complementario (por símbolo y aridad); el resto no puede
+    // intervenir en una refutación y ni siquiera se visita. Devuelve esas
+    // cláusulas alcanzables, o null si están en juego todas las de la base
+    private BitSet simplifyInput(List<Clause> negatedQuery, List<Clause> lemmas, EnumSet<Simplification> steps) {
+        if (steps.isEmpty()) return null;
+        SimplificationStats simplified = stats.simplification;
+        boolean tautologies = steps.contains(Simplification.TAUTOLOGIES);
+        if (tautologies) {
+            int before = negatedQuery.size() + lemmas.size();
+            negatedQuery.removeIf(Simplifier::isTautology);
+            lemmas.removeIf(Simplifier::isTautology);
+            simplified.tautologies += before - negatedQuery.size() - lemmas.size();
+        }
+        
+        BitSet candidates = null;
+        if (steps.contains(Simplification.RELEVANCE)) {
+            candidates = new BitSet(kb.size() + 1);
+            LiteralIndex lemmaIndex = new LiteralIndex();
+            for (Clause lemma : lemmas) {
+                lemmaIndex.add(lemma);
+            }
+            Set<Clause> relevantLemmas = Collections.newSetFromMap(new IdentityHashMap<>());
+            BitSet expanded = new BitSet();
+            Deque<Clause> pending = new ArrayDeque<>(negatedQuery);
+            while (!pending.isEmpty()) {
+                for (Predicate pred : pending.pop().predicates) {
+                    int key = LiteralIndex.key(pred) ^ 1;
+                    if (expanded.get(key)) continue;
+                    expanded.set(key);
+                    for (BaseLiteralIndex index : kb.literalIndexes) {
+                        for (int id : index.get(key)) {
+                            if (removed.get(id) || candidates.get(id)) continue;
+                            Clause clause = kb.clause(id);
+                            if (tautologies && Simplifier.isTautology(clause)) {
+                                removed.set(id);
+                                simplified.tautologies++;
+                                continue;
+                            }
+                            candidates.set(id);
+                            pending.push(clause);
+                        }
+                    }
+                    for (Clause lemma : lemmaIndex.get(key)) {
+                        if (relevantLemmas.add(lemma)) pending.push(lemma);
+                    }
+                }
+            }
+            int lemmaCount = lemmas.size();
+            lemmas.retainAll(relevantLemmas);
+            simplified.irrelevant += kb.size() - removed.cardinality() - candidates.cardinality()
+                + lemmaCount - lemmas.size();
+        } else if (tautologies) {
+            for (Clause clause : kb.clauses()) {
+                if (!removed.get(clause.id) && Simplifier.isTautology(clause)) {
+                    removed.set(clause.id);
+                    simplified.tautologies++;
+                }
+            }
+        }
+        
+        if (steps.contains(Simplification.PURE_LITERALS)) removePure(negatedQuery, lemmas, candidates);
+        if (!simplified.isEmpty()) {
+            logger.println(LogLevel.SUMMARY, "Simplificación de la entrada: " + simplified);
+        }
+        return candidates;
+    }
+    
+    // Quita hasta el punto fijo las cláusulas con un literal cuyo
+    // complementario no aparece en ninguna cláusula en juego; el literal de
+    // respuesta nunca cuenta como puro
+    private void removePure(List<Clause> negatedQuery, List<Clause> lemmas, BitSet candidates) {
+        List<Clause> clauses = new ArrayList<>();
+        if (candidates != null) {
+            for (int id = candidates.nextSetBit(0); id >= 0; id = candidates.nextSetBit(id + 1)) {
+                clauses.add(kb.clause(id));
+            }
+        } else {
+            for (Clause clause : kb.clauses()) {
+                if (!removed.get(clause.id)) clauses.add(clause);
+            }
+        }
+        clauses.addAll(lemmas);
+        clauses.addAll(negatedQuery);
+        
+        int[] counts = new int[64];     // Cláusulas en juego con algún literal de cada clave
+        for (Clause clause : clauses) {
+            for (int key : keys(clause)) {
+                if (key >= counts.length) counts = Arrays.copyOf(counts, Math.max(counts.length * 2, key + 1));
+                counts[key]++;
+            }
+        }
+        Set<Clause> pure = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Clause clause : clauses) {
+                if (pure.contains(clause) || !hasPureLiteral(clause, counts)) continue;
+                pure.add(clause);
+                for (int key : keys(clause)) {
+                    counts[key]--;
+                }
+                if (clause.id <= kb.size()) removed.set(clause.id);
+                changed = true;
+            }
+        }
+        negatedQuery.removeIf(pure::contains);
+        lemmas.removeIf(pure::contains);
+        stats.simplification.pure += pure.size();
+    }
+    
+    private boolean hasPureLiteral(Clause clause, int[] counts) {
+        for (Predicate pred : clause.predicates) {
+            if (pred.symbol == answerSymbol) continue;
+            int complement = LiteralIndex.key(pred) ^ 1;
+            if (complement >= counts.length || counts[complement] == 0) return true;
+        }
+        return false;
+    }
+    
+    // Claves distintas de los literales de la cláusula
+    private static int[] keys(Clause clause) {
+        int[] keys = new int[clause.predicates.size()];
+        int count = 0;
+        outer:
+        for (Predicate pred : clause.predicates) {
+            int key = LiteralIndex.key(pred);
+            for (int i = 0; i < count; i++) {
+                if (keys[i] == key) continue outer;
+            }
+            keys[count++] = key;
+        }
+        return Arrays.copyOf(keys, count);
+    }
+    
+    // Rondas de la búsqueda hasta demostrar, saturar o agotar el presupuesto.
+    // Con literal de respuesta devuelve null en cada respuesta nueva (queda en
+    // lastAnswer) y la siguiente llamada sigue desde la inferencia posterior
+    private ResolutionStatus search(SearchOptions options, ForkJoinPool pool) {
+        int batchSize = options.effectiveBatchSize();
+        
+        while (true) {
+            while (nextInference < inferences.size()) {
+                if ((stopReason = budget.exhausted(stats)) != null) return ResolutionStatus.UNKNOWN;
+                Inference inference = inferences.get(nextInference++);
+                Clause resolvent = inference.resolvent;
+                stats.generated++;
+                
+                // El paso se registra después de simplificar: el escritor del
+                // registro lee la cláusula desde otro hilo y la condensación la
+                // cambia, así que solo se le pasa ya terminada
+                if (!resolvent.predicates.isEmpty() && !simplify(resolvent, options.simplify)) continue;
+                logger.step(step++, inference.partner, inference.given, resolvent);
+                
+                if (resolvent.predicates.isEmpty()) {
+                    resolvent.id = nextClauseId++;
+                    derivation.put(resolvent);
+                    proof = extractProof(resolvent);
+                    return ResolutionStatus.PROVED;
+                }
+                
+                // Cláusula de respuesta: no se conserva. Las disyuntivas (más de
+                // un literal de respuesta) no dan un único enlace y se descartan
+                if (isAnswer(resolvent)) {
+                    if (resolvent.predicates.size() == 1 && answers.add(resolvent.predicates.get(0))) {
+                        resolvent.id = nextClauseId++;
+                        derivation.put(resolvent);
+                        lastAnswer = resolvent;
+                        return null;
+                    }
+                    continue;
+                }
+                
+                // Subsunción hacia adelante: descartar la cláusula si otra más general ya existe
+                Clause subsumer = kb.findSubsumer(resolvent, trail, removed);
+                if (subsumer == null) subsumer = retained.findSubsumer(resolvent, trail, removed);
+                if (subsumer != null) {
+                    if (subsumer.equals(resolvent)) {
+                        stats.duplicates++;
+                    } else {
+                        stats.forwardSubsumed++;
+                    }
+                    continue;
+                }
+                
+                // Subsunción hacia atrás: eliminar las cláusulas que la nueva hace redundantes.
+                // Las de la base solo se marcan, porque su índice es compartido
+                for (Clause subsumed : kb.findSubsumed(resolvent, trail, removed)) {
+                    removed.set(subsumed.id);
+                    passive.remove(subsumed.id);
+                    stats.backwardSubsumed++;
+                }
+                for (Clause subsumed : retained.findSubsumed(resolvent, trail, removed)) {
+                    retained.remove(subsumed);
+                    removed.set(subsumed.id);
+                    passive.remove(subsumed.id);
+                    stats.backwardSubsumed++;
+                    if (subsumed.parents != null) stats.retained--;
+                }
+                
+                resolvent.id = nextClauseId++;
+                derivation.put(resolvent);
+                retained.add(resolvent);
+                passive.add(resolvent);
+                stats.kept++;
+                stats.retained++;
+                while (passive.isOverLimit()) {
+                    int worst = passive.evict();
+                    if (worst < 0) break;
+                    evict(worst);
+                }
+            }
+            
+            for (Clause given : batch) {
+                if (removed.get(given.id)) continue;
+                if (given.id <= kb.size()) {
+                    activeBase.set(given.id);
+                } else {
+                    active.add(given);
+                }
+                activeCount++;
+            }
+            batch = Collections.emptyList();
+            
+            if (passive.isEmpty()) {
+                if (stats.evicted == 0) return ResolutionStatus.SATURATED;
+                stopReason = "se descartaron " + stats.evicted + " cláusulas pendientes por la cota de pasivas";
+                return ResolutionStatus.UNKNOWN;
+            }
+            if ((stopReason = budget.exhausted(stats)) != null) return ResolutionStatus.UNKNOWN;
+            sample(passive, false);
+            
+            List<Clause> next = new ArrayList<>(batchSize);
+            while (next.size() < batchSize && !passive.isEmpty()) {
+                Clause given = passive.poll();
+                if (!removed.get(given.id)) next.add(given);
+            }
+            batch = next;
+            stats.givenClauses += batch.size();
+            inferences = batch.isEmpty() ? Collections.emptyList()
+                : pool == null ? generate(batch, 0, trail)
+                : generateParallel(batch, options.deterministic, pool);
+            nextInference = 0;
+            // Una generación cortada por el plazo o la cancelación está
+            // incompleta: no puede llevar a SATURATED
+            if (budget.isInterrupted()) {
+                stopReason = budget.exhausted(stats);
+                return ResolutionStatus.UNKNOWN;
+            }
+        }
+    }
+    
+    // Descarta una derivada pendiente: todavía no fue dada, así que no es
+    // padre de ninguna otra y puede salir también del DAG de la prueba. Las
+    // eliminadas por subsunción hacia atrás ya salieron de la cola
+    private void evict(int id) {
+        if (id < 0 || removed.get(id)) return;
+        Clause clause = derivation.get(id);
+        retained.remove(clause);
+        derivation.remove(id);
+        removed.set(id);
+        stats.retained--;
+        stats.evicted++;
+    }
+    
+    // Simplificación de un resolvente antes de conservarlo: false si es una
+    // tautología; la condensación lo acorta en el lugar
+    private boolean simplify(Clause resolvent, EnumSet<Simplification> steps) {
+        if (steps.isEmpty()) return true;
+        if (steps.contains(Simplification.TAUTOLOGIES) && Simplifier.isTautology(resolvent)) {
+            stats.simplification.tautologies++;
+            return false;
+        }
+        if (steps.contains(Simplification.CONDENSATION)) {
+            List<Predicate> condensed = Simplifier.condense(resolvent, trail);
+            if (condensed != null) {
+                stats.simplification.condensed++;
+                stats.simplification.condensedLiterals += resolvent.predicates.size() - condensed.size();
+                resolvent.predicates = condensed;
+            }
+        }
+        return true;
+    }
+    
+    private boolean isAnswer(Clause clause) {
+        if (answerSymbol < 0) return false;
+        for (Predicate pred : clause.predicates) {
+            if (pred.symbol != answerSymbol) return false;
+        }
+        return true;
+    }
+    
+    private Clause clauseById(int id) {
+        return id <= kb.size() ? kb.clause(id) : derivation.get(id);
+    }
+    
+    // Recorre el DAG hacia atrás desde la cláusula vacía y devuelve solo las
+    // cláusulas que contribuyen a la refutación, ordenadas por identificador
+    private List<Clause> extractProof(Clause empty) {
+        TreeMap<Integer, Clause> result = new TreeMap<>();
+        Deque<Clause> pending = new ArrayDeque<>();
+        pending.push(empty);
+        while (!pending.isEmpty()) {
+            Clause clause = pending.pop();
+            if (result.put(clause.id, clause) != null || clause.parents == null) continue;
+            for (int parentId : clause.parents) {
+                if (!result.containsKey(parentId)) pending.push(clauseById(parentId));
+            }
+        }
+        return new ArrayList<>(result.values());
+    }
+    
+    // Cláusulas activas (de la base y de la sesión) con algún literal
+    // complementario a los de la cláusula dada
+    private Collection<Clause> partners(Clause given) {
+        Set<Clause> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<Clause> result = new ArrayList<>();
+        for (Predicate pred : given.predicates) {
+            int key = LiteralIndex.key(pred) ^ 1;
+            for (BaseLiteralIndex index : kb.literalIndexes) {
+                for (int id : index.get(key)) {
+                    if (activeBase.get(id) && !removed.get(id)) {
+                        Clause candidate = kb.clause(id);
+                        if (seen.add(candidate)) result.add(candidate);
+                    }
+                }
+            }
+            for (Clause candidate : active.get(key)) {
+                if (!removed.get(candidate.id) && seen.add(candidate)) {
+                    result.add(candidate);
+                }
+            }
+        }
+        return result;
+    }
+    
+    // Resolventes de la cláusula dada en la posición index del lote contra las
+    // cláusulas activas y contra las anteriores del mismo lote
+    private List<Inference> generate(List<Clause> batch, int index, BindingTrail trail) {
+        List<Inference> inferences = new ArrayList<>();
+        Clause given = batch.get(index);
+        
+        // Solo se prueban las cláusulas activas con un literal complementario.
+        // El plazo se mira en cada pareja: una cláusula dada con muchas
+        // compañeras no debe pasarse del tiempo de la consulta
+        for (Clause partner : partners(given)) {
+            if (budget.isInterrupted()) return inferences;
+            Clause resolvent = resolveClauses(partner, given, trail);
+            if (resolvent != null) inferences.add(new Inference(partner, given, resolvent));
+        }
+        for (int i = 0; i < index; i++) {
+            if (budget.isInterrupted()) break;
+            Clause partner = batch.get(i);
+            Clause resolvent = resolveClauses(partner, given, trail);
+            if (resolvent != null) inferences.add(new Inference(partner, given, resolvent));
+        }
+        return inferences;
+    }
+    
+    // Genera los resolventes del lote en el pool. En modo determinista se
+    // concatenan en el orden del lote; si no, cada tarea los publica en una
+    // cola concurrente a medida que termina, descartando duplicados exactos
+    // con un conjunto concurrente
+    private List<Inference> generateParallel(List<Clause> batch, boolean deterministic, ForkJoinPool pool) {
+        if (deterministic) {
+            List<List<Inference>> perGiven = new ArrayList<>(Collections.nCopies(batch.size(), null));
+            pool.invoke(new GenerateTask(0, batch.size(), index ->
+                perGiven.set(index, generate(batch, index, workerTrails.get()))));
+            List<Inference> inferences = new ArrayList<>();
+            for (List<Inference> list : perGiven) {
+                inferences.addAll(list);
+            }
+            return inferences;
+        }
+        
+        Set<Clause> seen = ConcurrentHashMap.newKeySet();
+        Queue<Inference> results = new ConcurrentLinkedQueue<>();
+        LongAdder dropped = new LongAdder();
+        pool.invoke(new GenerateTask(0, batch.size(), index -> {
+            for (Inference inference : generate(batch, index, workerTrails.get())) {
+                if (seen.add(inference.resolvent)) {
+                    results.add(inference);
+                } else {
+                    dropped.increment();
+                }
+            }
+        }));
+        stats.duplicates += dropped.sum();
+        return new ArrayList<>(results);
+    }
+    
+    // Tarea fork-join que divide el lote en rangos de cláusulas dadas
+    private static class GenerateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        
+        private final int from;
+        private final int to;
+        private final IntConsumer work;
+        
+        GenerateTask(int from, int to, IntConsumer work) {
+            this.from = from;
+            this.to = to;
+            this.work = work;
+        }
+        
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (from < to) work.accept(from);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new GenerateTask(from, mid, work), new GenerateTask(mid, to, work));
+        }
+    }
+    
+    // Primer resolvente de las dos cláusulas, o null si no se resuelven (ver
+    // COMPLETE_INFERENCE)
+    static Clause resolveClauses(Clause c1, Clause c2, BindingTrail trail) {
+        for (int i = 0; i < c1.predicates.size(); i++) {
+            Predicate p1 = c1.predicates.get(i);
+            for (int j = 0; j < c2.predicates.size(); j++) {
+                Predicate p2 = c2.predicates.get(j);
+                if (p1.signature == p2.signature && p1.negated != p2.negated) {
+                    int mark = trail.mark();
+                    if (Unifier.unify(p1, p2, trail)) {
+                        // Crear resolvente aplicando los enlaces del trail
+                        List<Predicate> uniquePreds = new ArrayList<>();
+                        
+                        // Agregar todos los predicados de c1 excepto p1
+                        for (Predicate pred : c1.predicates) {
+                            if (!pred.equals(p1)) {
+                                addUnique(uniquePreds, Unifier.applyBindings(pred, trail));
+                            }
+                        }
+                        
+                        // Agregar todos los predicados de c2 excepto p2
+                        for (Predicate pred : c2.predicates) {
+                            if (!pred.equals(p2)) {
+                                addUnique(uniquePreds, Unifier.applyBindings(pred, trail));
+                            }
+                        }
+                        
+                        trail.undo(mark);
+                        Clause resolvent = new Clause(uniquePreds, -1);     // ID temporal
+                        resolvent.parents = new int[] {c1.id, c2.id};
+                        resolvent.parentLiterals = new int[] {i, j};
+                        resolvent.fromQuery = c1.fromQuery || c2.fromQuery;
+                        return resolvent;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+    
+    // Agrega el predicado si no está ya (elimina duplicados)
+    private static void addUnique(List<Predicate> list, Predicate pred) {
+        if (!containsPredicate(list, pred)) {
+            list.add(pred);
+        }
+    }
+    
+    private static boolean containsPredicate(List<Predicate> list, Predicate pred) {
+        for (Predicate p : list) {
+            if (p.equals(pred)) return true;
+        }
+        return false;
+    }
+}
+
+
+
+// Portafolio de configuraciones de búsqueda: cada consulta se lanza con todas
+// a la vez, cada una en su hilo y con su propia sesión sobre la misma base
+// compilada. La primera respuesta concluyente gana y las demás se cancelan
+// con un token hijo del presupuesto, así que cancelar el presupuesto detiene
+// todo el portafolio. Los hilos se crean una vez y se reutilizan entre
+// consultas; close los libera
+class Portfolio implements AutoCloseable {
+    private final List<String> names = new ArrayList<>();
+    private final List<SearchOptions> configurations = new ArrayList<>();
+    private boolean assumeConsistent = false;
+    private ExecutorService executor;
+    
+    // PROVED siempre es concluyente. Por omisión SATURATED solo lo es si es
+    // exacto (ResolutionResult.exact: modelo mínimo de una base Horn o caché),
+    // y los demás se usan únicamente si ninguna configuración decide; con
+    // assumeConsistent(true) lo es cualquiera. Los no exactos nunca entran
+    // en la caché de la base
+    public Portfolio assumeConsistent(boolean assumeConsistent) {
+        this.assumeConsistent = assumeConsistent;
+        return this;
+    }
+    
+    public Portfolio add(String name, SearchOptions options) {
+        if (executor != null) throw new IllegalStateException("El portafolio ya está en uso");
+        names.add(name);
+        configurations.add(options);
+        return this;
+    }
+    
+    // Órdenes de selección y restricciones distintas, tantas como procesadores
+    // (al menos dos). Solo la primera prueba el encadenamiento hacia adelante,
+    // que en una base Horn responde sola
+    public static Portfolio standard() {
+        Portfolio portfolio = new Portfolio()
+            .add("edad", new SearchOptions())
+            .add("peso-edad+soporte", new SearchOptions().forwardChaining(false)
+                .selection(ClauseSelection.WEIGHT_AGE).setOfSupport(true))
+            .add("peso+simplificación", new SearchOptions().forwardChaining(false)
+                .selection(ClauseSelection.WEIGHT).simplifyAll())
+            .add("edad+soporte+simplificación", new SearchOptions().forwardChaining(false)
+                .setOfSupport(true).simplifyAll())
+            .add("peso-edad", new SearchOptions().forwardChaining(false)
+                .selection(ClauseSelection.WEIGHT_AGE).ageRatio(2));
+        int processors = Math.max(2, Runtime.getRuntime().availableProcessors());
+        while (portfolio.size() > processors) {
+            portfolio.names.remove(portfolio.size() - 1);
+            portfolio.configurations.remove(portfolio.size() - 1);
+        }
+        return portfolio;
+    }
+    
+    public int size() {
+        return configurations.size();
+    }
+    
+    public String name(int index) {
+        return names.get(index);
+    }
+    
+    public PortfolioResult resolve(KnowledgeBase kb, String query) throws InterruptedException {
+        return resolve(kb, query, ResolutionBudget.unlimited());
+    }
+    
+    // Vuelve con la primera respuesta concluyente sin esperar a que las demás
+    // configuraciones terminen de cancelarse. Si ninguna decide, devuelve un
+    // SATURATED no concluyente si lo hubo o el UNKNOWN de la primera
+    public PortfolioResult resolve(KnowledgeBase kb, String query, ResolutionBudget budget) throws InterruptedException {
+        if (configurations.isEmpty()) throw new IllegalStateException("Portafolio vacío");
+        synchronized (this) {
+            if (executor == null) {
+                executor = Executors.newFixedThreadPool(configurations.size(), runnable -> {
+                    Thread thread = new Thread(runnable, "portafolio");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        CancellationToken losers = new CancellationToken(budget.cancellation);
+        ResolutionBudget shared = budget.withCancellation(losers);
+        CompletionService<PortfolioResult> completion = new ExecutorCompletionService<>(executor);
+        for (int i = 0; i < configurations.size(); i++) {
+            int index = i;
+            completion.submit(() -> new PortfolioResult(index, names.get(index),
+                kb.openSession().resolve(query, configurations.get(index), shared)));
+        }
+        
+        PortfolioResult[] results = new PortfolioResult[configurations.size()];
+        try {
+            for (int i = 0; i < configurations.size(); i++) {
+                PortfolioResult result;
+                try {
+                    result = completion.take().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new IllegalStateException(cause);
+                }
+                if (isConclusive(result)) return result;
+                results[result.index] = result;
+            }
+            for (PortfolioResult result : results) {
+                if (result.result.status == ResolutionStatus.SATURATED) return result;
+            }
+            return results[0];
+        } finally {
+            losers.cancel();
+        }
+    }
+    
+    private boolean isConclusive(PortfolioResult result) {
+        return result.result.isConclusive()
+            || (assumeConsistent && result.result.status == ResolutionStatus.SATURATED);
+    }
+    
+    @Override
+    public synchronized void close() {
+        if (executor != null) executor.shutdownNow();
+    }
+}
+
+// Resultado de un portafolio: la configuración que respondió y su resultado
+class PortfolioResult {
+    public final int index;
+    public final String configuration;
+    public final ResolutionResult result;
+    
+    public PortfolioResult(int index, String configuration, ResolutionResult result) {
+        this.index = index;
+        this.configuration = configuration;
+        this.result = result;
+    }
+    
+    @Override
+    public String toString() {
+        return configuration + ": " + result;
+    }
+}
+
+// Clase principal del motor de inferencia: compila la base y responde
+// consultas con el registro en archivo
+class ResolutionEngine {
+    private LiveKnowledgeBase knowledgeBase;
+    private ProofLogger logger;
+    private List<Clause> lastProof = Collections.emptyList();
+    
+    public void initialize(List<String> sentences, String logFilePath) throws IOException {
+        initialize(sentences, logFilePath, LogLevel.TRACE);
+    }
+    
+    public void initialize(List<String> sentences, String logFilePath, LogLevel logLevel) throws IOException {
+        this.logger = new ProofLogger(logFilePath, logLevel);
+        
+        // Convertir a FNC
+        this.knowledgeBase = new LiveKnowledgeBase(KnowledgeBase.compile(sentences));
+        
+        // Guardar cláusulas iniciales
+        if (logger.isEnabled(LogLevel.PROOF)) {
+            logger.println(LogLevel.PROOF, "=== CLAUSULAS EN FORMA NORMAL CONJUNTIVA ===");
+            for (Clause clause : knowledgeBase.current().clauses()) {
+                logger.println(LogLevel.PROOF, "C" + clause.id + ": " + clause);
+            }
+            logger.println(LogLevel.PROOF);
+        }
+    }
+    
+    public KnowledgeBase getKnowledgeBase() {
+        return knowledgeBase.current();
+    }
+    
+    // Agrega o retira sentencias sin recompilar la base; las consultas en
+    // curso siguen con la versión anterior
+    public void assertSentences(List<String> sentences) {
+        knowledgeBase.assertSentences(sentences);
+    }
+    
+    // Devuelve cuántas cláusulas se retiraron
+    public int retractSentences(List<String> sentences) {
+        int before = knowledgeBase.current().liveSize();
+        return before - knowledgeBase.retractSentences(sentences).liveSize();
+    }
+    
+    public boolean resolve(String query) throws IOException {
+        return resolve(query, new SearchOptions());
+    }
+    
+    public boolean resolve(String query, SearchOptions options) throws IOException {
+        return resolve(query, options, ResolutionBudget.unlimited()).isProved();
+    }
+    
+    public ResolutionResult resolve(String query, SearchOptions options, ResolutionBudget budget) throws IOException {
+        QuerySession session = knowledgeBase.openSession(logger);
+        try {
+            ResolutionResult result = session.resolve(query, options, budget);
+            lastProof = result.proof;
+            return result;
+        } finally {
+            logger.close();
+        }
+    }
+    
+    // Respuestas perezosas de una consulta con variables (ver
+    // QuerySession.answers); el registro se cierra al cerrar el Stream, así
+    // que hay que usarlo con try-with-resources
+    public Stream<QueryAnswer> answers(String query) {
+        return answers(query, new SearchOptions(), ResolutionBudget.unlimited());
+    }
+    
+    public Stream<QueryAnswer> answers(String query, SearchOptions options, ResolutionBudget budget) {
+        QuerySession session = knowledgeBase.openSession(logger);
+        return session.answers(query, options, budget).stream().onClose(() -> {
+            try {
+                logger.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+    
+    // Consulta con un portafolio de configuraciones; en el registro solo queda
+    // la respuesta de la configuración ganadora y su prueba
+    public ResolutionResult resolve(String query, Portfolio portfolio, ResolutionBudget budget)
+            throws IOException, InterruptedException {
+        try {
+            PortfolioResult winner = portfolio.resolve(knowledgeBase.current(), query, budget);
+            ResolutionResult result = winner.result;
+            lastProof = result.proof;
+            logger.println(LogLevel.SUMMARY, "=== PORTAFOLIO DE ESTRATEGIAS ===");
+            logger.println(LogLevel.SUMMARY, "Consulta: " + query);
+            logger.println(LogLevel.SUMMARY, "Configuración ganadora: " + winner.configuration);
+            if (result.isProved()) logger.proof(result.proof);
+            logger.println(LogLevel.SUMMARY, "Resultado: " + result);
+            return result;
+        } finally {
+            logger.close();
+        }
+    }
+    
+    // Cláusulas de la última refutación encontrada (vacía si la consulta fue falsa)
+    public List<Clause> getLastProof() {
+        return lastProof;
+    }
+}
+
+//-----Encadenamiento hacia adelante (fragmento Horn)-----
+
+// Cláusula Horn vista como regla: índice del literal positivo (la cabeza, -1
+// en las restricciones) e índices de los literales negativos (el cuerpo)
+class HornRule {
+    final Clause clause;
+    final int head;
+    final int[] body;
+    
+    private HornRule(Clause clause, int head, int[] body) {
+        this.clause = clause;
+        this.head = head;
+        this.body = body;
+    }
+    
+    // Regla de la cláusula, o null si tiene más de un literal positivo o si
+    // alguna variable de la cabeza no aparece en el cuerpo (rango restringido;
+    // así todos los hechos derivados son básicos)
+    static HornRule of(Clause clause) {
+        int head = -1;
+        IntList body = new IntList();
+        for (int i = 0; i < clause.predicates.size(); i++) {
+            if (clause.predicates.get(i).negated) {
+                body.add(i);
+            } else if (head >= 0) {
+                return null;
+            } else {
+                head = i;
+            }
+        }
+        HornRule rule = new HornRule(clause, head, body.toArray());
+        if (head >= 0) {
+            for (Term term : clause.predicates.get(head).terms) {
+                if (term.isVariable && !rule.bodyContains(term)) return null;
+            }
+        }
+        return rule;
+    }
+    
+    private boolean bodyContains(Term variable) {
+        for (int index : body) {
+            if (literal(index).terms.contains(variable)) return true;
+        }
+        return false;
+    }
+    
+    boolean isFact() {
+        return head >= 0 && body.length == 0;
+    }
+    
+    boolean isConstraint() {
+        return head < 0;
+    }
+    
+    Predicate literal(int index) {
+        return clause.predicates.get(index);
+    }
+}
+
+// Origen de un hecho: la regla que lo produjo y los hechos que satisfacen su
+// cuerpo, en el orden de sus literales. Los hechos de entrada no tienen premisas
+class FactSource {
+    static final Predicate[] NO_PREMISES = new Predicate[0];
+    
+    final HornRule rule;
+    final Predicate[] premises;
+    
+    FactSource(HornRule rule, Predicate[] premises) {
+        this.rule = rule;
+        this.premises = premises;
+    }
+}
+
+// Hechos básicos agrupados por firma, con un índice hash por (argumento,
+// constante) en cada relación. Los hechos se numeran en orden de inserción y
+// esa numeración separa los viejos de los nuevos en cada ronda semi-ingenua.
+// Una capa puede apoyarse en otra de solo lectura, que cuenta siempre como vieja
+class FactStore {
+    private final FactStore parent;
+    private final List<Predicate> facts = new ArrayList<>();
+    private final Map<Predicate, FactSource> sources = new HashMap<>();
+    private final Map<Integer, Relation> relations = new HashMap<>();
+    
+    private static class Relation {
+        final IntList facts = new IntList();                     // Posiciones en orden creciente
+        final Map<Long, IntList> byArgument = new HashMap<>();
+    }
+    
+    // Recibe cada combinación de hechos que satisface un cuerpo, con los
+    // enlaces todavía en el trail; devuelve true para detener la búsqueda
+    interface JoinConsumer {
+        boolean accept(Predicate[] matched);
+    }
+    
+    FactStore(FactStore parent) {
+        this.parent = parent;
+    }
+    
+    // Hechos de esta capa (sin contar la base)
+    public int size() {
+        return facts.size();
+    }
+    
+    // Número de capas, contando esta
+    public int depth() {
+        return parent == null ? 1 : parent.depth() + 1;
+    }
+    
+    // Copia en una sola capa los hechos de esta y de sus bases, en orden
+    public FactStore flatten() {
+        Deque<FactStore> layers = new ArrayDeque<>();
+        for (FactStore layer = this; layer != null; layer = layer.parent) {
+            layers.push(layer);
+        }
+        FactStore flat = new FactStore(null);
+        for (FactStore layer : layers) {
+            for (Predicate fact : layer.facts) {
+                flat.add(fact, layer.sources.get(fact));
+            }
+        }
+        return flat;
+    }
+    
+    public boolean contains(Predicate fact) {
+        return sources.containsKey(fact) || (parent != null && parent.contains(fact));
+    }
+    
+    public FactSource source(Predicate fact) {
+        FactSource source = sources.get(fact);
+        return source != null || parent == null ? source : parent.source(fact);
+    }
+    
+    // Agrega el hecho si no estaba en esta capa ni en la base
+    public boolean add(Predicate fact, FactSource source) {
+        if (contains(fact)) return false;
+        int position = facts.size();
+        facts.add(fact);
+        sources.put(fact, source);
+        Relation relation = relations.computeIfAbsent(fact.signature, signature -> new Relation());
+        relation.facts.add(position);
+        for (int i = 0; i < fact.terms.size(); i++) {
+            relation.byArgument.computeIfAbsent(argumentKey(i, fact.terms.get(i).symbol), key -> new IntList())
+                .add(position);
+        }
+        return true;
+    }
+    
+    private static long argumentKey(int argument, int symbol) {
+        return ((long) argument << 32) | symbol;
+    }
+    
+    // Punto fijo semi-ingenuo: en cada ronda cada regla se evalúa una vez por
+    // literal del cuerpo, que toma solo los hechos nuevos de la ronda anterior;
+    // los literales previos ven los hechos viejos y los siguientes, todos. Así
+    // cada combinación se prueba en una sola ronda. Los hechos de esta capa
+    // cuentan como nuevos al empezar. Devuelve false si stop pidió detenerse;
+    // se consulta en cada ronda y cada 1024 combinaciones dentro de una ronda
+    public boolean saturate(List<HornRule> rules, BindingTrail trail, BooleanSupplier stop) {
+        int[] matches = new int[1];
+        boolean[] stopped = new boolean[1];
+        int deltaFrom = 0;
+        while (deltaFrom < facts.size()) {
+            if (stop.getAsBoolean()) return false;
+            int deltaTo = facts.size();
+            for (HornRule rule : rules) {
+                for (int delta = 0; delta < rule.body.length; delta++) {
+                    new Join(rule, delta, deltaFrom, deltaTo, trail, matched -> {
+                        derive(rule, matched, trail);
+                        if ((++matches[0] & 0x3FF) == 0 && stop.getAsBoolean()) stopped[0] = true;
+                        return stopped[0];
+                    }).from(0);
+                    if (stopped[0]) return false;
+                }
+            }
+            deltaFrom = deltaTo;
+        }
+        return true;
+    }
+    
+    // Evalúa la regla una vez sobre todos los hechos (de esta capa y de la
+    // base); los que derive quedan como nuevos para el siguiente punto fijo
+    public void apply(HornRule rule, BindingTrail trail) {
+        new Join(rule, -1, 0, facts.size(), trail, matched -> derive(rule, matched, trail)).from(0);
+    }
+    
+    // Agrega la cabeza de la regla con los enlaces actuales; nunca detiene el recorrido
+    private boolean derive(HornRule rule, Predicate[] matched, BindingTrail trail) {
+        Predicate fact = Unifier.applyBindings(rule.literal(rule.head), trail);
+        if (!contains(fact)) add(fact, new FactSource(rule, matched.clone()));
+        return false;
+    }
+    
+    // Primera combinación de hechos que satisface el cuerpo de la regla, o null
+    public Predicate[] findMatch(HornRule rule, BindingTrail trail) {
+        Predicate[][] found = new Predicate[1][];
+        new Join(rule, -1, 0, facts.size(), trail, matched -> {
+            found[0] = matched.clone();
+            return true;
+        }).from(0);
+        return found[0];
+    }
+    
+    // Como findMatch, pero solo combinaciones con algún hecho de esta capa
+    public Predicate[] findNewMatch(HornRule rule, BindingTrail trail) {
+        Predicate[][] found = new Predicate[1][];
+        for (int delta = 0; delta < rule.body.length && found[0] == null; delta++) {
+            new Join(rule, delta, 0, facts.size(), trail, matched -> {
+                found[0] = matched.clone();
+                return true;
+            }).from(0);
+        }
+        return found[0];
+    }
+    
+    // Recorrido de un cuerpo literal a literal. El literal delta (ninguno si es
+    // -1) se recorre primero y solo sobre los hechos [deltaFrom, deltaTo) de
+    // esta capa; los anteriores a él, sobre los previos a deltaFrom, y los
+    // posteriores, sobre los previos a deltaTo. Las bases entran en ambos casos
+    private class Join {
+        final HornRule rule;
+        final int delta;
+        final int deltaFrom;
+        final int deltaTo;
+        final BindingTrail trail;
+        final JoinConsumer consumer;
+        final Predicate[] matched;
+        
+        Join(HornRule rule, int delta, int deltaFrom, int deltaTo, BindingTrail trail, JoinConsumer consumer) {
+            this.rule = rule;
+            this.delta = delta;
+            this.deltaFrom = deltaFrom;
+            this.deltaTo = deltaTo;
+            this.trail = trail;
+            this.consumer = consumer;
+            this.matched = new Predicate[rule.body.length];
+        }
+        
+        boolean from(int step) {
+            if (step == rule.body.length) return consumer.accept(matched);
+            int b = delta < 0 ? step : step == 0 ? delta : step <= delta ? step - 1 : step;
+            if (b == delta) return scan(FactStore.this, b, deltaFrom, deltaTo, step);
+            for (FactStore layer = parent; layer != null; layer = layer.parent) {
+                if (scan(layer, b, 0, layer.size(), step)) return true;
+            }
+            return scan(FactStore.this, b, 0, b < delta ? deltaFrom : deltaTo, step);
+        }
+        
+        // Hechos de la capa en [from, to) que encajan con el literal b del cuerpo.
+        // Si algún argumento ya está ligado se recorre la lista más corta del índice
+        private boolean scan(FactStore store, int b, int from, int to, int step) {
+            if (from >= to) return false;
+            Predicate pattern = rule.literal(rule.body[b]);
+            Relation relation = store.relations.get(pattern.signature);
+            if (relation == null) return false;
+            IntList candidates = relation.facts;
+            for (int i = 0; i < pattern.terms.size(); i++) {
+                Term term = trail.deref(pattern.terms.get(i));
+                if (term.isVariable) continue;
+                IntList list = relation.byArgument.get(argumentKey(i, term.symbol));
+                if (list == null) return false;
+                if (list.size() < candidates.size()) candidates = list;
+            }
+            for (int k = lowerBound(candidates, from); k < candidates.size(); k++) {
+                int position = candidates.get(k);
+                if (position >= to) break;
+                Predicate fact = store.facts.get(position);
+                int mark = trail.mark();
+                if (matches(pattern, fact)) {
+                    matched[b] = fact;
+                    if (from(step + 1)) {
+                        trail.undo(mark);
+                        return true;
+                    }
+                }
+                trail.undo(mark);
+            }
+            return false;
+        }
+        
+        // Encaje de un literal del cuerpo con un hecho básico; liga las variables libres
+        private boolean matches(Predicate pattern, Predicate fact) {
+            for (int i = 0; i < pattern.terms.size(); i++) {
+                Term term = trail.deref(pattern.terms.get(i));
+                Term value = fact.terms.get(i);
+                if (term.isVariable) {
+                    trail.bind(term, value);
+                } else if (term != value) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+    
+    // Primera posición de la lista (creciente) con valor >= value
+    private static int lowerBound(IntList list, int value) {
+        int low = 0;
+        int high = list.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (list.get(mid) < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
+
+// Modelo mínimo de una base Horn de rango restringido: todos los hechos
+// derivables, calculados una vez por base. Una restricción (cláusula sin
+// literal positivo) que se cumple en el modelo hace inconsistente la base
+class HornModel {
+    private static final int MAX_LAYERS = 8;
+    
+    final List<HornRule> rules;           // Reglas con cabeza y cuerpo
+    final List<HornRule> constraints;
+    final FactStore facts;
+    final HornRule violated;              // Restricción que se cumple, o null
+    final Predicate[] violation;
+    final boolean complete;               // false si el punto fijo se cortó: los hechos son parciales
+    
+    private HornModel(List<HornRule> rules, List<HornRule> constraints, FactStore facts,
+                      HornRule violated, Predicate[] violation) {
+        this(rules, constraints, facts, violated, violation, true);
+    }
+    
+    private HornModel(List<HornRule> rules, List<HornRule> constraints, FactStore facts,
+                      HornRule violated, Predicate[] violation, boolean complete) {
+        this.rules = rules;
+        this.constraints = constraints;
+        this.facts = facts;
+        this.violated = violated;
+        this.violation = violation;
+        this.complete = complete;
+    }
+    
+    // Modelo de las cláusulas, o null si alguna no es Horn de rango
+    // restringido. Si stop corta el punto fijo el modelo queda incompleto
+    static HornModel build(List<Clause> clauses, BooleanSupplier stop) {
+        List<HornRule> rules = new ArrayList<>();
+        List<HornRule> constraints = new ArrayList<>();
+        FactStore facts = new FactStore(null);
+        for (Clause clause : clauses) {
+            HornRule rule = HornRule.of(clause);
+            if (rule == null) return null;
+            if (rule.isConstraint()) {
+                constraints.add(rule);
+            } else if (rule.isFact()) {
+                facts.add(rule.literal(rule.head), new FactSource(rule, FactSource.NO_PREMISES));
+            } else {
+                rules.add(rule);
+            }
+        }
+        BindingTrail trail = new BindingTrail();
+        if (!facts.saturate(rules, trail, stop)) return new HornModel(rules, constraints, facts, null, null, false);
+        for (HornRule constraint : constraints) {
+            Predicate[] match = facts.findMatch(constraint, trail);
+            if (match != null) return new HornModel(rules, constraints, facts, constraint, match);
+        }
+        return new HornModel(rules, constraints, facts, null, null);
+    }
+    
+    // Modelo con las cláusulas agregadas, o null si alguna no es Horn de rango
+    // restringido. Los hechos nuevos van en una capa sobre este modelo, que
+    // siguen usando las versiones anteriores de la base; las reglas nuevas se
+    // evalúan una vez sobre todos los hechos y el punto fijo sigue solo desde
+    // lo nuevo. Cada MAX_LAYERS extensiones las capas se aplanan en una
+    HornModel extend(List<Clause> added) {
+        FactStore layer = new FactStore(facts.depth() >= MAX_LAYERS ? facts.flatten() : facts);
+        List<HornRule> newRules = new ArrayList<>();
+        List<HornRule> newConstraints = new ArrayList<>();
+        for (Clause clause : added) {
+            HornRule rule = HornRule.of(clause);
+            if (rule == null) return null;
+            if (rule.isConstraint()) {
+                newConstraints.add(rule);
+            } else if (rule.isFact()) {
+                layer.add(rule.literal(rule.head), new FactSource(rule, FactSource.NO_PREMISES));
+            } else {
+                newRules.add(rule);
+            }
+        }
+        BindingTrail trail = new BindingTrail();
+        for (HornRule rule : newRules) {
+            layer.apply(rule, trail);
+        }
+        List<HornRule> allRules = new ArrayList<>(rules);
+        allRules.addAll(newRules);
+        List<HornRule> allConstraints = new ArrayList<>(constraints);
+        allConstraints.addAll(newConstraints);
+        layer.saturate(allRules, trail, () -> false);
+        
+        if (violated != null) return new HornModel(allRules, allConstraints, layer, violated, violation);
+        for (HornRule constraint : constraints) {
+            Predicate[] match = layer.findNewMatch(constraint, trail);
+            if (match != null) return new HornModel(allRules, allConstraints, layer, constraint, match);
+        }
+        for (HornRule constraint : newConstraints) {
+            Predicate[] match = layer.findMatch(constraint, trail);
+            if (match != null) return new HornModel(allRules, allConstraints, layer, constraint, match);
+        }
+        return new HornModel(allRules, allConstraints, layer, null, null);
+    }
+}
+
+//-----Instantáneas binarias de la base compilada-----
+
+// Formato binario de una base compilada (enteros big-endian):
+//   cabecera: MAGIA, VERSIÓN, número de símbolos y cada símbolo en UTF-8
+//   registros de cláusulas: literales con símbolo, polaridad, aridad y
+//     argumentos codificados como (símbolo << 1 | esVariable)
+//   tablas: desplazamiento de cada cláusula, vectores de características
+//     y entradas del índice de literales
+//   cola: posiciones de las tablas, número de cláusulas y MAGIA
+// Los símbolos se numeran localmente y se vuelven a internar al cargar
+class KnowledgeBaseSnapshot {
+    private static final int MAGIC = 0x4B425331;     // "KBS1"
+    private static final int VERSION = 2;     // 2: cubetas de características por nombre
+    private static final int TRAILER_SIZE = 5 * 4;
+    
+    // Solo se guardan las cláusulas no retiradas, renumeradas como 1..n
+    public static void write(KnowledgeBase kb, Path file) throws IOException {
+        List<Clause> clauses = kb.liveClauses();
+        Map<Integer, Integer> localIds = new HashMap<>();
+        List<String> names = new ArrayList<>();
+        for (Clause clause : clauses) {
+            for (Predicate pred : clause.predicates) {
+                localId(pred.symbol, localIds, names);
+                for (Term term : pred.terms) {
+                    localId(term.symbol, localIds, names);
+                }
+            }
+        }
+        
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(names.size());
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            
+            int[] offsets = new int[clauses.size()];
+            Map<Long, IntList> index = new LinkedHashMap<>();
+            for (int i = 0; i < clauses.size(); i++) {
+                Clause clause = clauses.get(i);
+                int id = i + 1;
+                offsets[i] = out.size();
+                out.writeInt(clause.predicates.size());
+                for (Predicate pred : clause.predicates) {
+                    int symbol = localIds.get(pred.symbol);
+                    out.writeInt(symbol);
+                    out.writeInt(pred.negated ? 1 : 0);
+                    out.writeInt(pred.terms.size());
+                    for (Term term : pred.terms) {
+                        out.writeInt(localIds.get(term.symbol) << 1 | (term.isVariable ? 1 : 0));
+                    }
+                    long key = (long) symbol << 32 | pred.terms.size() << 1 | (pred.negated ? 1 : 0);
+                    IntList ids = index.computeIfAbsent(key, k -> new IntList(4));
+                    if (ids.isEmpty() || ids.get(ids.size() - 1) != id) ids.add(id);
+                }
+            }
+            
+            int offsetsPosition = out.size();
+            for (int offset : offsets) {
+                out.writeInt(offset);
+            }
+            
+            int featuresPosition = out.size();
+            for (Clause clause : clauses) {
+                for (int value : Subsumption.features(clause)) {
+                    out.writeInt(value);
+                }
+            }
+            
+            int indexPosition = out.size();
+            out.writeInt(index.size());
+            for (Map.Entry<Long, IntList> entry : index.entrySet()) {
+                long key = entry.getKey();
+                out.writeInt((int) (key >>> 32));
+                out.writeInt((int) (key & 0xFFFFFFFFL) >>> 1);
+                out.writeInt((int) (key & 1));
+                out.writeInt(entry.getValue().size());
+                for (int k = 0; k < entry.getValue().size(); k++) {
+                    out.writeInt(entry.getValue().get(k));
+                }
+            }
+            
+            out.writeInt(offsetsPosition);
+            out.writeInt(featuresPosition);
+            out.writeInt(indexPosition);
+            out.writeInt(clauses.size());
+            out.writeInt(MAGIC);
+        }
+    }
+    
+    private static void localId(int symbol, Map<Integer, Integer> localIds, List<String> names) {
+        if (!localIds.containsKey(symbol)) {
+            localIds.put(symbol, names.size());
+            names.add(SymbolTable.name(symbol));
+        }
+    }
+    
+    // Proyecta el archivo en memoria; los símbolos, el índice y los vectores
+    // de características se leen al cargar y las cláusulas al usarlas
+    public static KnowledgeBase read(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.limit() < 12 + TRAILER_SIZE || buffer.getInt(0) != MAGIC
+                || buffer.getInt(buffer.limit() - 4) != MAGIC) {
+            throw new IOException("No es una instantánea de base de conocimiento: " + file);
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException("Versión de instantánea no soportada: " + buffer.getInt(4));
+        }
+        
+        // La numeración de variables y constantes de Skolem para las cláusulas
+        // que se agreguen después sigue a la más alta de la tabla de símbolos
+        int position = 8;
+        int[] symbols = new int[buffer.getInt(position)];
+        int nextVariable = 1;
+        int nextSkolem = 1;
+        position += 4;
+        for (int i = 0; i < symbols.length; i++) {
+            int length = buffer.getInt(position);
+            byte[] bytes = new byte[length];
+            buffer.get(position + 4, bytes);
+            String name = new String(bytes, StandardCharsets.UTF_8);
+            symbols[i] = SymbolTable.intern(name);
+            nextVariable = FNCConverter.nextAfter(name, "v", nextVariable);
+            nextSkolem = FNCConverter.nextAfter(name, "Sk", nextSkolem);
+            position += 4 + length;
+        }
+        
+        int trailer = buffer.limit() - TRAILER_SIZE;
+        int offsetsPosition = buffer.getInt(trailer);
+        int featuresPosition = buffer.getInt(trailer + 4);
+        int indexPosition = buffer.getInt(trailer + 8);
+        int clauseCount = buffer.getInt(trailer + 12);
+        
+        int[][] features = new int[clauseCount][Subsumption.FEATURES];
+        position = featuresPosition;
+        for (int[] vector : features) {
+            for (int f = 0; f < vector.length; f++, position += 4) {
+                vector[f] = buffer.getInt(position);
+            }
+        }
+        
+        position = indexPosition;
+        int entries = buffer.getInt(position);
+        position += 4;
+        Map<Integer, int[]> postings = new HashMap<>();
+        int maxKey = -1;
+        for (int e = 0; e < entries; e++) {
+            int symbol = symbols[buffer.getInt(position)];
+            int arity = buffer.getInt(position + 4);
+            boolean negated = buffer.getInt(position + 8) != 0;
+            int[] ids = new int[buffer.getInt(position + 12)];
+            position += 16;
+            for (int k = 0; k < ids.length; k++, position += 4) {
+                ids[k] = buffer.getInt(position);
+            }
+            int key = SymbolTable.signature(symbol, arity) * 2 + (negated ? 1 : 0);
+            postings.put(key, ids);
+            maxKey = Math.max(maxKey, key);
+        }
+        int[][] table = new int[maxKey + 1][];
+        for (int key = 0; key < table.length; key++) {
+            table[key] = postings.getOrDefault(key, new int[0]);
+        }
+        
+        List<Clause> clauses = new MappedClauseList(buffer, symbols, offsetsPosition, clauseCount);
+        return new KnowledgeBase(clauses, new BaseLiteralIndex(table), features, nextVariable, nextSkolem);
+    }
+    
+    // Lista de cláusulas que se decodifican del archivo proyectado la primera
+    // vez que se piden; es segura para varios hilos
+    private static class MappedClauseList extends AbstractList<Clause> {
+        private final ByteBuffer buffer;
+        private final int[] symbols;
+        private final int offsetsPosition;
+        private final AtomicReferenceArray<Clause> decoded;
+        
+        MappedClauseList(ByteBuffer buffer, int[] symbols, int offsetsPosition, int size) {
+            this.buffer = buffer;
+            this.symbols = symbols;
+            this.offsetsPosition = offsetsPosition;
+            this.decoded = new AtomicReferenceArray<>(size);
+        }
+        
+        @Override
+        public Clause get(int index) {
+            Clause clause = decoded.get(index);
+            if (clause == null) {
+                clause = decode(index);
+                if (!decoded.compareAndSet(index, null, clause)) clause = decoded.get(index);
+            }
+            return clause;
+        }
+        
+        @Override
+        public int size() {
+            return decoded.length();
+        }
+        
+        private Clause decode(int index) {
+            int position = buffer.getInt(offsetsPosition + 4 * index);
+            int literals = buffer.getInt(position);
+            position += 4;
+            List<Predicate> predicates = new ArrayList<>(literals);
+            for (int l = 0; l < literals; l++) {
+                int symbol = symbols[buffer.getInt(position)];
+                boolean negated = buffer.getInt(position + 4) != 0;
+                int arity = buffer.getInt(position + 8);
+                position += 12;
+                List<Term> terms = new ArrayList<>(arity);
+                for (int t = 0; t < arity; t++, position += 4) {
+                    int code = buffer.getInt(position);
+                    terms.add(SymbolTable.term(symbols[code >>> 1], (code & 1) != 0));
+                }
+                predicates.add(Predicate.of(SymbolTable.name(symbol), terms, negated));
+            }
+            return new Clause(predicates, index + 1);
+        }
+    }
+}
+
+//-----Modo por lotes-----
+
+// Resuelve muchos archivos de problema a la vez. Cada archivo tiene una
+// sentencia por línea (admite comentarios con #) y las consultas en líneas
+// que empiezan con '?'. Los problemas se compilan y resuelven en un pool de
+// hilos, con un plazo por problema que comparten todas sus consultas, y cada
+// respuesta se escribe en el informe (CSV o JSONL) en cuanto se obtiene.
+// El plazo empieza antes de compilar y la compilación lo consume, pero no la
+// interrumpe: una base cuya FNC explota ocupa su hilo hasta terminar de
+// compilarse (sus consultas salen luego como UNKNOWN) y el lote la espera
+class BatchSolver {
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean virtualThreads = false;
+    private long timeoutMillis = 0;     // 0 = sin plazo
+    private SearchOptions options = new SearchOptions();
+    
+    public BatchSolver threads(int threads) {
+        this.threads = threads;
+        return this;
+    }
+    
+    // Hilos virtuales si el JDK los tiene (21 o posterior); si no, de plataforma
+    public BatchSolver virtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+        return this;
+    }
+    
+    public BatchSolver timeout(long millis) {
+        this.timeoutMillis = millis;
+        return this;
+    }
+    
+    public BatchSolver options(SearchOptions options) {
+        this.options = options;
+        return this;
+    }
+    
+    // Uso: batch [--threads N] [--virtual] [--simplify] [--max-passive N] [--timeout ms]
+    //            [--format csv|jsonl] [--output archivo] (directorio | archivo | @lista)...
+    public static void main(String[] args) throws IOException, InterruptedException {
+        BatchSolver solver = new BatchSolver();
+        List<Path> problems = new ArrayList<>();
+        String format = null;
+        Path output = null;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads": solver.threads(Integer.parseInt(args[++i])); break;
+                case "--virtual": solver.virtualThreads(true); break;
+                case "--simplify": solver.options.simplifyAll(); break;
+                case "--max-passive": solver.options.maxPassive(Integer.parseInt(args[++i])); break;
+                case "--timeout": solver.timeout(Long.parseLong(args[++i])); break;
+                case "--format": format = args[++i]; break;
+                case "--output": output = Paths.get(args[++i]); break;
+                default:
+                    if (args[i].startsWith("--")) throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+                    problems.addAll(problemFiles(args[i]));
+            }
+        }
+        if (format == null) format = output != null && output.toString().endsWith(".csv") ? "csv" : "jsonl";
+        
+        Writer writer = output != null
+            ? Files.newBufferedWriter(output, StandardCharsets.UTF_8)
+            : new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        try (BatchReport report = new BatchReport(writer, format.equals("csv"), output != null)) {
+            solver.solve(problems, report);
+            System.err.println(report.summary());
+            if (report.failure() != null) throw report.failure();
+        }
+        // PrintStream no lanza sus errores de escritura: solo los marca
+        if (output == null && System.out.checkError()) {
+            throw new IOException("No se pudo escribir el informe en la salida estándar");
+        }
+    }
+    
+    // Archivos de un argumento: todos los de un directorio (recursivamente),
+    // los listados en @lista (uno por línea) o el archivo mismo
+    static List<Path> problemFiles(String argument) throws IOException {
+        if (argument.startsWith("@")) {
+            List<Path> files = new ArrayList<>();
+            for (String line : Files.readAllLines(Paths.get(argument.substring(1)), StandardCharsets.UTF_8)) {
+                if (!line.isBlank()) files.addAll(problemFiles(line.trim()));
+            }
+            return files;
+        }
+        Path path = Paths.get(argument);
+        if (!Files.isDirectory(path)) return List.of(path);
+        try (Stream<Path> walk = Files.walk(path)) {
+            List<Path> files = new ArrayList<>();
+            walk.filter(Files::isRegularFile).sorted().forEach(files::add);
+            return files;
+        }
+    }
+    
+    // Resuelve todos los problemas; vuelve cuando el último está en el informe.
+    // Solo hay threads problemas en curso a la vez, también con hilos virtuales
+    public void solve(List<Path> problems, BatchReport report) throws InterruptedException {
+        ExecutorService executor = virtualThreads ? virtualExecutor() : null;
+        if (executor == null) executor = Executors.newFixedThreadPool(threads);
+        Semaphore slots = new Semaphore(threads);
+        try {
+            for (Path problem : problems) {
+                slots.acquire();
+                if (report.failure() != null) {
+                    slots.release();
+                    break;
+                }
+                executor.execute(() -> {
+                    try {
+                        solve(problem, report);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            }
+            slots.acquire(threads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private static ExecutorService virtualExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Este JDK no tiene hilos virtuales; se usan hilos de plataforma.");
+            return null;
+        }
+    }
+    
+    // Un problema: compila su base y responde sus consultas en orden. Un error
+    // de lectura o de sintaxis se informa como una fila ERROR del problema. El
+    // plazo cuenta desde aquí, pero solo resolve lo hace cumplir
+    void solve(Path problem, BatchReport report) {
+        ResolutionBudget budget = ResolutionBudget.unlimited();
+        if (timeoutMillis > 0) budget.timeout(timeoutMillis);
+        long start = System.nanoTime();
+        try {
+            StringBuilder sentences = new StringBuilder();
+            List<String> queries = new ArrayList<>();
+            for (String line : Files.readAllLines(problem, StandardCharsets.UTF_8)) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("?")) {
+                    queries.add(trimmed.substring(1).trim());
+                    sentences.append('\n');     // Conserva los números de línea de los errores
+                } else {
+                    sentences.append(line).append('\n');
+                }
+            }
+            KnowledgeBase kb = KnowledgeBase.compile(new StringReader(sentences.toString()));
+            long compileNanos = System.nanoTime() - start;
+            for (String query : queries) {
+                ResolutionResult result = kb.openSession().resolve(query, options, budget);
+                report.result(problem, query, compileNanos, result);
+            }
+            report.problemDone();
+        } catch (IOException | RuntimeException e) {
+            report.error(problem, e, System.nanoTime() - start);
+        }
+    }
+}
+
+// Informe del modo por lotes: una fila por consulta, escrita y vaciada en
+// cuanto llega. Los hilos del pool escriben en él a la vez
+class BatchReport implements Closeable {
+    private static final String[] COLUMNS = {
+        "problem", "query", "status", "reason", "compile_ms", "query_ms", "given", "generated", "kept"
+    };
+    
+    private final Writer writer;
+    private final boolean csv;
+    private final boolean closeWriter;
+    private final long start = System.nanoTime();
+    private final Map<String, Integer> counts = new TreeMap<>();
+    private int problems;
+    private IOException failure;        // primer error de escritura; después no se escribe más
+    
+    public BatchReport(Writer writer, boolean csv, boolean closeWriter) throws IOException {
+        this.writer = writer;
+        this.csv = csv;
+        this.closeWriter = closeWriter;
+        if (csv) {
+            writer.write(String.join(",", COLUMNS) + "\n");
+            writer.flush();
+        }
+    }
+    
+    public void result(Path problem, String query, long compileNanos, ResolutionResult result) {
+        ResolutionStats stats = result.stats;
+        write(problem.toString(), query, result.status.name(), result.reason,
+              TimeUnit.NANOSECONDS.toMillis(compileNanos), TimeUnit.NANOSECONDS.toMillis(stats.elapsedNanos),
+              stats.givenClauses, stats.generated, stats.kept);
+    }
+    
+    public void error(Path problem, Exception e, long elapsedNanos) {
+        write(problem.toString(), null, "ERROR", String.valueOf(e.getMessage()),
+              TimeUnit.NANOSECONDS.toMillis(elapsedNanos), null, null, null, null);
+        synchronized (this) {
+            problems++;
+        }
+    }
+    
+    public synchronized void problemDone() {
+        problems++;
+    }
+    
+    private synchronized void write(Object... values) {
+        counts.merge((String) values[2], 1, Integer::sum);
+        StringBuilder sb = new StringBuilder();
+        if (!csv) sb.append('{');
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append(',');
+            if (csv) {
+                if (values[i] != null) sb.append(csvField(values[i].toString()));
+            } else {
+                sb.append('"').append(COLUMNS[i]).append("\":");
+                if (values[i] == null || values[i] instanceof Number) sb.append(values[i]);
+                else sb.append(jsonString(values[i].toString()));
+            }
+        }
+        if (!csv) sb.append('}');
+        sb.append('\n');
+        if (failure != null) return;
+        try {
+            writer.write(sb.toString());
+            writer.flush();
+        } catch (IOException e) {
+            // Se escribe desde las tareas del ejecutor: el error se guarda para
+            // que BatchSolver.main lo informe al terminar
+            failure = e;
+        }
+    }
+    
+    // Error de escritura del informe, o null si todas las filas se escribieron
+    public synchronized IOException failure() {
+        return failure;
+    }
+    
+    private static String csvField(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+    
+    private static String jsonString(String value) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+    
+    // Problemas terminados, respuestas por estado y tiempo total
+    public synchronized String summary() {
+        return "Problemas: " + problems + ", respuestas: " + counts
+            + ", tiempo=" + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms";
+    }
+    
+    @Override
+    public void close() throws IOException {
+        if (closeWriter) writer.close();
+        else writer.flush();
+    }
+}
+
+//-----Clase Principal con Ejemplos-----
+public class SistemaInferencia {
+    
+    // Sin argumentos ejecuta los ejemplos; "batch ..." resuelve archivos de
+    // problema (ver BatchSolver.main)
+    public static void main(String[] args) {
+        try {
+            if (args.length > 0 && args[0].equals("batch")) {
+                try {
+                    BatchSolver.main(Arrays.copyOfRange(args, 1, args.length));
+                } catch (Exception e) {
+                    // El lote termina con código distinto de cero si no pudo
+                    // leer sus argumentos o escribir el informe
+                    System.err.println("batch: " + e);
+                    System.exit(1);
+                }
+                return;
+            }
+            
             System.out.println("=== EJEMPLO MARCO ODIA A CÉSAR ===");
             testMarcoCesar();
             
@@ -0,0 +1,135 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+// Benchmarks JMH del motor: análisis y FNC, unificación, resolución de un
+// par de cláusulas y consultas completas. Las sesiones no escriben registro
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InferenceBenchmarks {
+    
+    @State(Scope.Benchmark)
+    public static class Parsing {
+        @Param({"100", "1000"})
+        public int depth;
+        
+        List<String> sentences;
+        
+        @Setup
+        public void setup() {
+            sentences = KnowledgeBaseGenerators.implicationChain(depth).sentences;
+        }
+        
+        @Benchmark
+        public List<Clause> convertToFNC() {
+            return FNCConverter.convertToFNC(sentences);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class Unification {
+        Predicate general;
+        Predicate ground;
+        Predicate negatedGround;     // ¬Rel(A, B, C), para chocar con clash en el último argumento
+        Predicate clash;
+        BindingTrail trail;
+        
+        @Setup
+        public void setup() {
+            List<Clause> clauses = FNCConverter.convertToFNC(Arrays.asList(
+                "∀x ∀y ∀z Rel(x, y, z) ⇒ Ok(x)", "Rel(A, B, C)", "Rel(A, B, D)"));
+            general = clauses.get(0).predicates.get(0);     // ¬Rel(v1, v2, v3)
+            ground = clauses.get(1).predicates.get(0);
+            negatedGround = ground.negate();
+            clash = clauses.get(2).predicates.get(0);
+            trail = new BindingTrail();
+        }
+        
+        @Benchmark
+        public boolean unifySuccess() {
+            int mark = trail.mark();
+            boolean result = Unifier.unify(general, ground, trail);
+            trail.undo(mark);
+            return result;
+        }
+        
+        @Benchmark
+        public boolean unifyFailure() {
+            return Unifier.unify(negatedGround, clash, trail);
+        }
+        
+        @Benchmark
+        public Map<String, Term> unifyWithMaps() {
+            return Unifier.unify(general, ground);
+        }
+    }
+    
+    @State(Scope.Thread)
+    public static class ResolveClauses {
+        Clause rule;
+        Clause fact;
+        Clause unrelated;
+        BindingTrail trail;
+        
+        @Setup
+        public void setup() {
+            List<Clause> clauses = FNCConverter.convertToFNC(Arrays.asList(
+                "∀x ∀y Hombre(x) ∧ Gobernante(y) ∧ IntentaAsesinar(x, y) ⇒ ¬Leal(x, y)",
+                "IntentaAsesinar(Marco, Cesar)", "Romano(Marco)"));
+            rule = clauses.get(0);
+            fact = clauses.get(1);
+            unrelated = clauses.get(2);
+            trail = new BindingTrail();
+        }
+        
+        @Benchmark
+        public Clause resolvent() {
+            return QuerySession.resolveClauses(rule, fact, trail);
+        }
+        
+        @Benchmark
+        public Clause noResolvent() {
+            return QuerySession.resolveClauses(rule, unrelated, trail);
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class EndToEnd {
+        @Param({"chain", "wide", "horn", "pigeonhole"})
+        public String problem;
+        
+        @Param({"false", "true"})
+        public boolean setOfSupport;
+        
+        @Param({"false", "true"})
+        public boolean compactClauses;
+        
+        KnowledgeBaseGenerators.Problem generated;
+        KnowledgeBase kb;
+        
+        @Setup
+        public void setup() {
+            switch (problem) {
+                case "chain": generated = KnowledgeBaseGenerators.implicationChain(50); break;
+                case "wide": generated = KnowledgeBaseGenerators.wideFacts(20, 200); break;
+                case "horn": generated = KnowledgeBaseGenerators.randomHorn(7, 12, 6, 16, 12); break;
+                default: generated = KnowledgeBaseGenerators.pigeonhole(3);
+            }
+            kb = KnowledgeBase.compile(generated.sentences);
+        }
+        
+        // Sin encadenamiento hacia adelante: en las bases Horn el modelo se
+        // construye en la primera invocación y el resto solo lo consultaría
+        @Benchmark
+        public void resolve(Blackhole blackhole) {
+            SearchOptions options = new SearchOptions().useCache(false).forwardChaining(false)
+                .setOfSupport(setOfSupport).compactClauses(compactClauses);
+            ResolutionBudget budget = new ResolutionBudget().timeout(10_000);
+            blackhole.consume(kb.openSession().resolve(generated.query, options, budget));
+        }
+    }
+}
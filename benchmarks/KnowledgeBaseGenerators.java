@@ -0,0 +1,87 @@
+import java.util.*;
+
+// Generadores de bases de conocimiento sintéticas para los benchmarks.
+// Cada problema trae sus sentencias y una consulta; los nombres solo usan
+// letras, dígitos y _ para que el analizador los acepte
+class KnowledgeBaseGenerators {
+    
+    // Problema generado: sentencias, consulta y si la consulta se sigue
+    static class Problem {
+        final List<String> sentences;
+        final String query;
+        final boolean entailed;
+        
+        Problem(List<String> sentences, String query, boolean entailed) {
+            this.sentences = sentences;
+            this.query = query;
+            this.entailed = entailed;
+        }
+    }
+    
+    // Cadena de implicaciones P0(x) ⇒ P1(x) ⇒ ... ⇒ Pn(x) con el hecho P0(A)
+    static Problem implicationChain(int depth) {
+        List<String> sentences = new ArrayList<>();
+        for (int i = 0; i < depth; i++) {
+            sentences.add("∀x P" + i + "(x) ⇒ P" + (i + 1) + "(x)");
+        }
+        sentences.add("P0(A)");
+        return new Problem(sentences, "P" + depth + "(A)", true);
+    }
+    
+    // Muchos hechos binarios repartidos en varios predicados y una regla que
+    // los une; la consulta pide un solo hecho derivado
+    static Problem wideFacts(int predicates, int factsPerPredicate) {
+        List<String> sentences = new ArrayList<>();
+        for (int p = 0; p < predicates; p++) {
+            for (int f = 0; f < factsPerPredicate; f++) {
+                sentences.add("Rel" + p + "(C" + f + ", C" + (f + 1) + ")");
+            }
+        }
+        sentences.add("∀x ∀y Rel0(x, y) ∧ Rel1(y, x) ⇒ Par(x)");
+        sentences.add("∀x ∀y Rel0(x, y) ⇒ Origen(x)");
+        return new Problem(sentences, "Origen(C" + (factsPerPredicate / 2) + ")", true);
+    }
+    
+    // Programa Horn aleatorio con reglas de uno a tres átomos en el cuerpo.
+    // La respuesta no se conoce de antemano (entailed = false solo indica eso)
+    static Problem randomHorn(long seed, int predicates, int constants, int rules, int facts) {
+        Random random = new Random(seed);
+        List<String> sentences = new ArrayList<>();
+        for (int r = 0; r < rules; r++) {
+            int bodySize = 1 + random.nextInt(3);
+            StringBuilder body = new StringBuilder();
+            for (int b = 0; b < bodySize; b++) {
+                if (b > 0) body.append(" ∧ ");
+                body.append("H").append(random.nextInt(predicates)).append("(x)");
+            }
+            sentences.add("∀x " + body + " ⇒ H" + random.nextInt(predicates) + "(x)");
+        }
+        for (int f = 0; f < facts; f++) {
+            sentences.add("H" + random.nextInt(predicates) + "(K" + random.nextInt(constants) + ")");
+        }
+        String query = "H" + random.nextInt(predicates) + "(K" + random.nextInt(constants) + ")";
+        return new Problem(sentences, query, false);
+    }
+    
+    // Principio del palomar: n + 1 palomas en n nidos. El conjunto es
+    // insatisfacible, así que cualquier consulta se demuestra por refutación
+    static Problem pigeonhole(int holes) {
+        List<String> sentences = new ArrayList<>();
+        for (int p = 0; p <= holes; p++) {
+            StringBuilder clause = new StringBuilder();
+            for (int h = 0; h < holes; h++) {
+                if (h > 0) clause.append(" ∨ ");
+                clause.append("En_").append(p).append('_').append(h);
+            }
+            sentences.add(clause.toString());
+        }
+        for (int h = 0; h < holes; h++) {
+            for (int p = 0; p <= holes; p++) {
+                for (int q = p + 1; q <= holes; q++) {
+                    sentences.add("¬En_" + p + "_" + h + " ∨ ¬En_" + q + "_" + h);
+                }
+            }
+        }
+        return new Problem(sentences, "Contradiccion", true);
+    }
+}